@@ -0,0 +1,70 @@
+package com.localsock.benchmark.jmh;
+
+import com.localsock.InMemoryChannelProvider;
+import com.localsock.InMemoryServerSocketChannel;
+import com.localsock.InMemorySocketChannel;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One full in-memory connection per operation: non-blocking connect, accept, finishConnect and
+ * close of both ends, all on the benchmark thread. Run with {@code -prof gc} and compare {@code
+ * gc.alloc.rate.norm} between the two settings of {@code recycle}, which switches the recycling of
+ * channel state on and off for the fork.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 2, warmups = 1)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class ConnectionChurnBenchmark {
+
+    @Param({"true", "false"})
+    private String recycle;
+
+    private static final int PORT = 12351;
+    private final InetSocketAddress address = new InetSocketAddress("127.0.0.1", PORT);
+    private InMemoryServerSocketChannel server;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        // Read once when the first channel is created, so it has to be set before that
+        System.setProperty("localsock.recycleChannels", recycle);
+        server = InMemoryChannelProvider.openInMemoryServerSocketChannel();
+        server.bind(address);
+        server.configureBlocking(false);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public boolean connectAndClose() throws IOException {
+        InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel();
+        client.configureBlocking(false);
+        client.connect(address);
+        SocketChannel accepted = server.accept();
+        boolean connected = client.finishConnect();
+        client.close();
+        accepted.close();
+        return connected;
+    }
+}
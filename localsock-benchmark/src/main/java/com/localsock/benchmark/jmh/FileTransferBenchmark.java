@@ -0,0 +1,132 @@
+package com.localsock.benchmark.jmh;
+
+import com.localsock.InMemoryChannelProvider;
+import com.localsock.InMemoryServerSocketChannel;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serving a whole file over one persistent connection: localsock's mapped-segment transfer against
+ * {@code FileChannel.transferTo} into a loopback TCP socket, which the JDK turns into sendfile. The
+ * receiving side drains into a direct buffer in both cases. The forks run with the JDK's selector
+ * provider so that the TCP side gets real sockets.
+ *
+ * <p>The default sizes stop at 64 MiB, since every trial writes its file to the temp directory.
+ * Larger files are opt-in, e.g. {@code -p fileSize=1073741824} for 1 GiB.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(
+        value = 2,
+        warmups = 1,
+        jvmArgsAppend = "-Djava.nio.channels.spi.SelectorProvider=sun.nio.ch.EPollSelectorProvider")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FileTransferBenchmark {
+
+    @Param({"localsock", "sendfile"})
+    private String transport;
+
+    @Param({"1048576", "67108864"})
+    private long fileSize;
+
+    private static final int PORT = 12350;
+    private Path file;
+    private FileChannel source;
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private SocketChannel peer;
+    private ByteBuffer drainBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        file = Files.createTempFile("localsock-transfer", ".bin");
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer block = ByteBuffer.allocateDirect(1024 * 1024);
+            for (long written = 0; written < fileSize; ) {
+                block.clear().limit((int) Math.min(block.capacity(), fileSize - written));
+                written += out.write(block);
+            }
+        }
+        source = FileChannel.open(file, StandardOpenOption.READ);
+
+        InetSocketAddress address = new InetSocketAddress("localhost", PORT);
+        server = transport.equals("localsock")
+                ? InMemoryChannelProvider.openInMemoryServerSocketChannel()
+                : ServerSocketChannel.open();
+        server.bind(address);
+        CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> {
+            try {
+                return server.accept();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        if (server instanceof InMemoryServerSocketChannel) {
+            client = InMemoryChannelProvider.openInMemorySocketChannel(address);
+        } else {
+            client = SocketChannel.open(address);
+        }
+        peer = accepted.get(5, TimeUnit.SECONDS);
+        drainBuffer = ByteBuffer.allocateDirect(256 * 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        peer.close();
+        server.close();
+        source.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long serveFile() throws Exception {
+        CompletableFuture<Long> sender = CompletableFuture.supplyAsync(() -> {
+            try {
+                long sent = 0;
+                while (sent < fileSize) {
+                    sent += InMemoryChannelProvider.transferTo(source, sent, fileSize - sent, client);
+                }
+                return sent;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        long received = 0;
+        while (received < fileSize) {
+            drainBuffer.clear();
+            int read = peer.read(drainBuffer);
+            if (read < 0) {
+                throw new IOException("Connection closed after " + received + " bytes");
+            }
+            received += read;
+        }
+        sender.get(1, TimeUnit.MINUTES);
+        return received;
+    }
+}
@@ -19,6 +19,9 @@ public class JmhRunner {
         Options opt = new OptionsBuilder()
                 .include(SocketConnectionBenchmark.class.getSimpleName())
                 .include(SocketThroughputBenchmark.class.getSimpleName())
+                .include(UnixSocketBenchmark.class.getSimpleName())
+                .include(FileTransferBenchmark.class.getSimpleName())
+                .include(ConnectionChurnBenchmark.class.getSimpleName())
                 .build();
 
         new Runner(opt).run();
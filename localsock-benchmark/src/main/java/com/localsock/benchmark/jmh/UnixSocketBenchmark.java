@@ -0,0 +1,128 @@
+package com.localsock.benchmark.jmh;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trip latency of the Unix domain socket fallback transport against plain loopback TCP, on
+ * one persistent connection. The forks run with the JDK's selector provider, as the library's own
+ * provider would otherwise hand out in-memory channels for both.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(
+        value = 2,
+        warmups = 1,
+        jvmArgsAppend = "-Djava.nio.channels.spi.SelectorProvider=sun.nio.ch.EPollSelectorProvider")
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+public class UnixSocketBenchmark {
+
+    @Param({"tcp", "unix"})
+    private String transport;
+
+    @Param({"64", "4096"})
+    private int messageSize;
+
+    private static final int PORT = 12349;
+    private Path socketDirectory;
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private CompletableFuture<Void> echo;
+    private ByteBuffer request;
+    private ByteBuffer response;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        SocketAddress address;
+        if (transport.equals("unix")) {
+            socketDirectory = Files.createTempDirectory("localsock-bench");
+            address = UnixDomainSocketAddress.of(socketDirectory.resolve(PORT + ".sock"));
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            client = SocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            address = new InetSocketAddress("localhost", PORT);
+            server = ServerSocketChannel.open();
+            client = SocketChannel.open();
+        }
+        server.bind(address);
+        CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> {
+            try {
+                return server.accept();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        client.connect(address);
+        SocketChannel peer = accepted.get(5, TimeUnit.SECONDS);
+        echo = CompletableFuture.runAsync(() -> runEcho(peer));
+
+        request = ByteBuffer.allocateDirect(messageSize);
+        response = ByteBuffer.allocateDirect(messageSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        echo.get(5, TimeUnit.SECONDS);
+        server.close();
+        if (socketDirectory != null) {
+            Files.deleteIfExists(socketDirectory.resolve(PORT + ".sock"));
+            Files.deleteIfExists(socketDirectory);
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer roundTrip() throws IOException {
+        request.clear();
+        while (request.hasRemaining()) {
+            client.write(request);
+        }
+        response.clear();
+        while (response.hasRemaining()) {
+            if (client.read(response) < 0) {
+                throw new IOException("Echo server closed the connection");
+            }
+        }
+        return response;
+    }
+
+    private void runEcho(SocketChannel peer) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(messageSize);
+        try (peer) {
+            while (peer.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    peer.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+}
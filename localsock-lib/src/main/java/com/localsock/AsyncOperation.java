@@ -0,0 +1,212 @@
+package com.localsock;
+
+import java.io.IOException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The outstanding operation of one kind (read, write or accept) on an asynchronous in-memory
+ * channel. An operation is attempted right away, and again on every readiness event of the
+ * underlying channel until the attempt produces a result.
+ *
+ * <p>Completion handlers run inline on whichever thread produced the result, the initiator or the
+ * peer whose write or read made the channel ready, as long as fewer than {@link
+ * #MAX_INLINE_COMPLETIONS} are already on that thread's stack. Deeper completions, as when every
+ * handler starts the next operation and data keeps arriving, go through the group's executor.
+ */
+final class AsyncOperation {
+
+    private static final Logger LOG = Logger.getLogger(AsyncOperation.class.getName());
+
+    /** Completion handlers one thread runs nested inside each other before handing off. */
+    static final int MAX_INLINE_COMPLETIONS = 16;
+
+    // Re-attempts after a failed attempt found the channel ready again, before leaving it to the
+    // next readiness event
+    private static final int MAX_RETRIES = 3;
+
+    private static final ThreadLocal<int[]> completionDepth = ThreadLocal.withInitial(() -> new int[1]);
+
+    /** Produces the operation's result, or null if the channel is not ready for it yet. */
+    @FunctionalInterface
+    interface Attempt<V> {
+        V attempt() throws IOException;
+    }
+
+    private final Executor executor;
+    private final BooleanSupplier ready;
+    private final Supplier<? extends IllegalStateException> pendingException;
+    private final AtomicBoolean outstanding = new AtomicBoolean();
+    // The operation waiting for readiness; whoever takes it out owns the next attempt
+    private final AtomicReference<Pending<?, ?>> pending = new AtomicReference<>();
+
+    /**
+     * @param executor runs completions that may not run inline
+     * @param ready whether the channel is ready for this kind of operation right now
+     * @param pendingException thrown when an operation is started while another is outstanding
+     */
+    AsyncOperation(
+            Executor executor, BooleanSupplier ready, Supplier<? extends IllegalStateException> pendingException) {
+        this.executor = executor;
+        this.ready = ready;
+        this.pendingException = pendingException;
+    }
+
+    /** Start an operation, attempting it on the calling thread first. */
+    <V, A> void start(
+            Attempt<V> attempt, long timeout, TimeUnit unit, A attachment, CompletionHandler<V, ? super A> handler) {
+        if (!outstanding.compareAndSet(false, true)) {
+            throw pendingException.get();
+        }
+        Pending<V, A> operation = new Pending<>(attempt, attachment, handler);
+        pending.set(operation);
+        if (timeout > 0) {
+            operation.timeout = Timeouts.scheduler.schedule(() -> expire(operation), timeout, unit);
+        }
+        readinessChanged();
+    }
+
+    /** Attempt the outstanding operation, if any. Called on every readiness event. */
+    void readinessChanged() {
+        for (int retry = 0; retry <= MAX_RETRIES; retry++) {
+            Pending<?, ?> operation = pending.getAndSet(null);
+            if (operation == null) {
+                return; // None outstanding, or another thread is attempting it
+            }
+            if (attemptAndComplete(operation)) {
+                return;
+            }
+            pending.set(operation);
+            if (operation.expired && pending.compareAndSet(operation, null)) {
+                finish(operation, null, new InterruptedByTimeoutException());
+                return;
+            }
+            // A readiness event between the attempt and putting the operation back found nothing
+            // to attempt, so check for ourselves
+            if (!ready.getAsBoolean()) {
+                return;
+            }
+        }
+    }
+
+    /** Fail the outstanding operation, if any, as the channel was closed. */
+    void fail(Throwable cause) {
+        Pending<?, ?> operation = pending.getAndSet(null);
+        if (operation != null) {
+            finish(operation, null, cause);
+        }
+    }
+
+    private <V> boolean attemptAndComplete(Pending<V, ?> operation) {
+        V result;
+        try {
+            result = operation.attempt.attempt();
+        } catch (IOException | RuntimeException e) {
+            finish(operation, null, e);
+            return true;
+        }
+        if (result == null) {
+            return false;
+        }
+        finish(operation, result, null);
+        return true;
+    }
+
+    private void expire(Pending<?, ?> operation) {
+        operation.expired = true;
+        if (pending.compareAndSet(operation, null)) {
+            finish(operation, null, new InterruptedByTimeoutException());
+        }
+    }
+
+    private <V, A> void finish(Pending<V, A> operation, V result, Throwable failure) {
+        if (operation.timeout != null) {
+            operation.timeout.cancel(false);
+        }
+        // Cleared first, so the handler can start the next operation
+        outstanding.set(false);
+
+        int[] depth = completionDepth.get();
+        if (depth[0] < MAX_INLINE_COMPLETIONS) {
+            depth[0]++;
+            try {
+                operation.complete(result, failure);
+            } finally {
+                depth[0]--;
+            }
+        } else {
+            executor.execute(() -> operation.complete(result, failure));
+        }
+    }
+
+    private static final class Pending<V, A> {
+        final Attempt<V> attempt;
+        final A attachment;
+        final CompletionHandler<V, ? super A> handler;
+        volatile ScheduledFuture<?> timeout;
+        volatile boolean expired;
+
+        Pending(Attempt<V> attempt, A attachment, CompletionHandler<V, ? super A> handler) {
+            this.attempt = attempt;
+            this.attachment = attachment;
+            this.handler = handler;
+        }
+
+        void complete(V result, Throwable failure) {
+            try {
+                if (failure == null) {
+                    handler.completed(result, attachment);
+                } else {
+                    handler.failed(failure, attachment);
+                }
+            } catch (RuntimeException | Error e) {
+                // Thrown on some other channel's thread, most likely, so there is nobody to tell
+                LOG.log(Level.WARNING, "Completion handler failed", e);
+            }
+        }
+    }
+
+    /** Handler that completes the future passed as attachment, for the {@code Future} variants. */
+    @SuppressWarnings("unchecked")
+    static <V> CompletionHandler<V, CompletableFuture<V>> completingFuture() {
+        return (CompletionHandler<V, CompletableFuture<V>>) (CompletionHandler<?, ?>) FutureHandler.INSTANCE;
+    }
+
+    private static final class FutureHandler implements CompletionHandler<Object, CompletableFuture<Object>> {
+        static final FutureHandler INSTANCE = new FutureHandler();
+
+        @Override
+        public void completed(Object result, CompletableFuture<Object> future) {
+            future.complete(result);
+        }
+
+        @Override
+        public void failed(Throwable failure, CompletableFuture<Object> future) {
+            future.completeExceptionally(failure);
+        }
+    }
+
+    /** Timer for operation timeouts, started on first use. */
+    private static final class Timeouts {
+        static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "localsock-async-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        static {
+            scheduler.setRemoveOnCancelPolicy(true);
+        }
+    }
+}
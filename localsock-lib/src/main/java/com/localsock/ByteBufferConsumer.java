@@ -0,0 +1,21 @@
+package com.localsock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives buffered data from {@link InMemorySocketChannel#drainTo(ByteBufferConsumer, int)} in
+ * place, without a copy into a caller-supplied buffer.
+ */
+@FunctionalInterface
+public interface ByteBufferConsumer {
+
+    /**
+     * Consume bytes from {@code view}, a read-only view of data queued on the channel. Advancing the
+     * view's position marks bytes as consumed; whatever is left stays queued for the next read.
+     *
+     * <p>The view is only valid during the call: once it returns, the memory behind it may be
+     * reused for later data, so the consumer must copy anything it wants to keep.
+     */
+    void accept(ByteBuffer view) throws IOException;
+}
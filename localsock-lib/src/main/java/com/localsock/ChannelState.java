@@ -0,0 +1,156 @@
+package com.localsock;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The locks, wait signals and owned-segment queue of one {@link InMemorySocketChannel}, recycled
+ * once its connection is fully closed instead of being rebuilt for every connect. Recycling can be
+ * turned off with the system property {@value #RECYCLE_PROPERTY} set to {@code false}.
+ *
+ * <p>A channel keeps referring to its state after it is closed. Every lease bumps the state's
+ * generation, so a closed channel can tell that the state it holds has moved on to another
+ * channel, and a state can only be recycled by the channel it was leased to, and only once.
+ */
+final class ChannelState {
+
+    static final String RECYCLE_PROPERTY = "localsock.recycleChannels";
+
+    // Upper bound for idle states retained across all stripes
+    private static final int RETAINED_STATES = 1024;
+
+    private static final boolean RECYCLE = Boolean.parseBoolean(System.getProperty(RECYCLE_PROPERTY, "true"));
+    private static final Stripe[] STRIPES;
+    private static final int STRIPE_MASK;
+    private static final LongAdder reused = new LongAdder();
+
+    private static final VarHandle GENERATION;
+
+    static {
+        int stripeCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+        STRIPES = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            STRIPES[i] = new Stripe(Math.max(2, RETAINED_STATES / stripeCount));
+        }
+        STRIPE_MASK = stripeCount - 1;
+        try {
+            GENERATION = MethodHandles.lookup().findVarHandle(ChannelState.class, "generation", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    final ReentrantLock readLock = new ReentrantLock();
+    final ReentrantLock writeLock = new ReentrantLock();
+    final WaitSignal dataSignal = new WaitSignal(readLock, this::isReadReady);
+    // Writers always wait on the condition, but like readers they are only signalled through the
+    // lock while one is actually waiting, so a read costs no lock on the writer's side
+    final WaitSignal spaceSignal = new WaitSignal(writeLock, this::isWriteReady);
+    // Buffers handed over by the peer's writeOwned(), interleaved with the ring bytes by position
+    final ConcurrentLinkedQueue<InMemorySocketChannel.OwnedSegment> ownedSegments = new ConcurrentLinkedQueue<>();
+    final AtomicLong ownedBytes = new AtomicLong();
+    private volatile InMemorySocketChannel owner;
+    private volatile int generation;
+
+    private ChannelState() {}
+
+    /** A state for a new channel, taken from the pool if one is idle. */
+    static ChannelState lease() {
+        ChannelState state = null;
+        if (RECYCLE) {
+            int home = stripeIndex();
+            for (int i = 0; i < STRIPES.length && state == null; i++) {
+                state = STRIPES[(home + i) & STRIPE_MASK].pop();
+            }
+        }
+        if (state == null) {
+            state = new ChannelState();
+        } else {
+            reused.increment();
+        }
+        GENERATION.getAndAdd(state, 1);
+        return state;
+    }
+
+    /**
+     * Have the wait signals ask {@code owner} whether it is ready. Done once the channel is
+     * connected rather than at lease, which runs while the channel is still being constructed.
+     */
+    void attach(InMemorySocketChannel owner) {
+        this.owner = owner;
+    }
+
+    /** The current lease, to be compared against by the channel holding it. */
+    int generation() {
+        return generation;
+    }
+
+    /**
+     * Hand the state back. The caller must have made sure that nobody is still inside a read or
+     * write of its channel, so the locks are free and no waiter relies on the queue.
+     *
+     * @param leasedGeneration the generation the state had when it was leased
+     */
+    void recycle(int leasedGeneration) {
+        // Odd while leased and even while idle, so a stale channel never matches a later lease
+        if (!GENERATION.compareAndSet(this, leasedGeneration, leasedGeneration + 1)) {
+            throw new IllegalStateException("Channel state was already recycled");
+        }
+        owner = null;
+        ownedSegments.clear();
+        ownedBytes.set(0);
+        if (RECYCLE) {
+            STRIPES[stripeIndex()].push(this);
+        }
+    }
+
+    /** Number of leases served with a recycled state. */
+    static long getReusedCount() {
+        return reused.sum();
+    }
+
+    // Waiters that find the state recycled go back to their channel, which is closed by then
+    private boolean isReadReady() {
+        InMemorySocketChannel channel = owner;
+        return channel == null || channel.isReadReady();
+    }
+
+    private boolean isWriteReady() {
+        InMemorySocketChannel channel = owner;
+        return channel == null || channel.isWriteReady();
+    }
+
+    private static int stripeIndex() {
+        return (int) Thread.currentThread().threadId() & STRIPE_MASK;
+    }
+
+    /** Bounded LIFO free list. */
+    private static final class Stripe {
+
+        private final ChannelState[] states;
+        private int size;
+
+        Stripe(int capacity) {
+            this.states = new ChannelState[capacity];
+        }
+
+        synchronized ChannelState pop() {
+            if (size == 0) {
+                return null;
+            }
+            ChannelState state = states[--size];
+            states[size] = null;
+            return state;
+        }
+
+        synchronized void push(ChannelState state) {
+            if (size < states.length) {
+                states[size++] = state;
+            }
+        }
+    }
+}
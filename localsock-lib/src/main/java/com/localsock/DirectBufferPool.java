@@ -0,0 +1,180 @@
+package com.localsock;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide pool of direct buffers ("slabs") in power-of-two size classes. Connections lease
+ * the memory for their receive rings from here instead of calling {@link
+ * ByteBuffer#allocateDirect(int)} on every connect, which is slow and can force a {@code
+ * System.gc()} once {@code -XX:MaxDirectMemorySize} is approached. Slabs the pool does not keep are
+ * freed through {@link RingMemory}, which on Java 22+ keeps a few more of them for reuse.
+ *
+ * <p>Each size class keeps one free list per stripe. A thread releases into and leases from the
+ * stripe picked by its thread id, and only looks at the other stripes before falling back to a
+ * fresh allocation. Every slab records its current owner, so releasing a slab twice or on behalf of
+ * someone who does not hold it fails instead of silently handing the same memory to two
+ * connections.
+ */
+public final class DirectBufferPool {
+
+    static final int MIN_SLAB_SIZE = 4 * 1024;
+    static final int MAX_SLAB_SIZE = 8 * 1024 * 1024;
+
+    // Upper bound for idle memory retained per size class across all stripes
+    private static final long RETAINED_BYTES_PER_CLASS = 16L * 1024 * 1024;
+
+    private static final DirectBufferPool SHARED = new DirectBufferPool();
+
+    private final Stripe[][] stripes;
+    private final int stripeMask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder leased = new LongAdder();
+
+    DirectBufferPool() {
+        int stripeCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+        int classCount =
+                Integer.numberOfTrailingZeros(MAX_SLAB_SIZE) - Integer.numberOfTrailingZeros(MIN_SLAB_SIZE) + 1;
+        this.stripeMask = stripeCount - 1;
+        this.stripes = new Stripe[classCount][stripeCount];
+        for (int sizeClass = 0; sizeClass < classCount; sizeClass++) {
+            long slabSize = (long) MIN_SLAB_SIZE << sizeClass;
+            int perStripe = (int) Math.max(2, RETAINED_BYTES_PER_CLASS / (slabSize * stripeCount));
+            for (int i = 0; i < stripeCount; i++) {
+                stripes[sizeClass][i] = new Stripe(perStripe);
+            }
+        }
+    }
+
+    /** The pool shared by all in-memory connections in this JVM. */
+    public static DirectBufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Lease a slab of at least {@code size} bytes on behalf of {@code owner}. Requests above {@link
+     * #MAX_SLAB_SIZE} are served with an unpooled buffer that is freed on release.
+     */
+    Slab lease(int size, Object owner) {
+        int sizeClass = sizeClass(size);
+        Slab slab = null;
+        if (sizeClass >= 0) {
+            Stripe[] candidates = stripes[sizeClass];
+            int home = stripeIndex();
+            for (int i = 0; i < candidates.length && slab == null; i++) {
+                slab = candidates[(home + i) & stripeMask].pop();
+            }
+        }
+
+        if (slab != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            int capacity = sizeClass >= 0 ? MIN_SLAB_SIZE << sizeClass : size;
+            slab = new Slab(RingMemory.allocate(capacity), sizeClass);
+        }
+
+        if (!Slab.OWNER.compareAndSet(slab, null, owner)) {
+            throw new IllegalStateException("Pooled slab is still leased by " + slab.owner);
+        }
+        leased.increment();
+        return slab;
+    }
+
+    /** Give a slab back. Only the owner it was leased to may release it, and only once. */
+    void release(Slab slab, Object owner) {
+        if (owner == null || !Slab.OWNER.compareAndSet(slab, owner, null)) {
+            throw new IllegalStateException("Slab is not leased by " + owner);
+        }
+        leased.decrement();
+        slab.buffer.clear();
+        // Oversize slabs, and slabs a full stripe has no room for, are freed right away
+        if (slab.sizeClass < 0 || !stripes[slab.sizeClass][stripeIndex()].push(slab)) {
+            slab.memory.free();
+        }
+    }
+
+    /** Number of leases served from a free list. */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** Number of leases that had to allocate a new direct buffer. */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** Number of slabs currently leased and not yet released. */
+    public long getLeasedCount() {
+        return leased.sum();
+    }
+
+    private static int sizeClass(int size) {
+        if (size > MAX_SLAB_SIZE) {
+            return -1;
+        }
+        int rounded = size <= MIN_SLAB_SIZE ? MIN_SLAB_SIZE : Integer.highestOneBit(size - 1) << 1;
+        return Integer.numberOfTrailingZeros(rounded) - Integer.numberOfTrailingZeros(MIN_SLAB_SIZE);
+    }
+
+    private int stripeIndex() {
+        return (int) Thread.currentThread().threadId() & stripeMask;
+    }
+
+    /** A pooled direct buffer together with the owner currently holding it. */
+    static final class Slab {
+
+        static final VarHandle OWNER;
+
+        static {
+            try {
+                OWNER = MethodHandles.lookup().findVarHandle(Slab.class, "owner", Object.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final RingMemory memory;
+        final ByteBuffer buffer;
+        final int sizeClass;
+        volatile Object owner;
+
+        Slab(RingMemory memory, int sizeClass) {
+            this.memory = memory;
+            this.buffer = memory.buffer();
+            this.sizeClass = sizeClass;
+        }
+    }
+
+    /** Bounded LIFO free list for one size class. */
+    private static final class Stripe {
+
+        private final Slab[] slabs;
+        private int size;
+
+        Stripe(int capacity) {
+            this.slabs = new Slab[capacity];
+        }
+
+        synchronized Slab pop() {
+            if (size == 0) {
+                return null;
+            }
+            Slab slab = slabs[--size];
+            slabs[size] = null;
+            return slab;
+        }
+
+        /** @return false if the list is full and the slab was not taken */
+        synchronized boolean push(Slab slab) {
+            if (size == slabs.length) {
+                return false;
+            }
+            slabs[size++] = slab;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.localsock;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.Channel;
+import java.nio.channels.ShutdownChannelGroupException;
+import java.nio.channels.spi.AsynchronousChannelProvider;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Channel group for in-memory asynchronous channels. Its executor runs the completion handlers
+ * that cannot run inline, see {@link InMemoryAsynchronousChannelProvider}, and the blocking part of
+ * connecting. Nothing polls, so the group needs no threads of its own.
+ */
+final class InMemoryAsynchronousChannelGroup extends AsynchronousChannelGroup {
+
+    private final ExecutorService executor;
+    private final Set<Channel> channels = ConcurrentHashMap.newKeySet();
+    private volatile boolean shutdown;
+
+    InMemoryAsynchronousChannelGroup(AsynchronousChannelProvider provider, ExecutorService executor) {
+        super(provider);
+        this.executor = executor;
+    }
+
+    ExecutorService executor() {
+        return executor;
+    }
+
+    /** Track a new channel, or refuse it once the group is shut down. */
+    void add(Channel channel) {
+        if (shutdown) {
+            throw new ShutdownChannelGroupException();
+        }
+        channels.add(channel);
+    }
+
+    void remove(Channel channel) {
+        channels.remove(channel);
+        if (shutdown && channels.isEmpty()) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return executor.isTerminated();
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        if (channels.isEmpty()) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public void shutdownNow() throws IOException {
+        shutdown = true;
+        for (Channel channel : channels) {
+            channel.close();
+        }
+        executor.shutdownNow();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,75 @@
+package com.localsock;
+
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.IllegalChannelGroupException;
+import java.nio.channels.spi.AsynchronousChannelProvider;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Asynchronous channel provider whose channels connect through {@link InMemorySocketRegistry}, so
+ * {@code AsynchronousSocketChannel} code reaches in-memory servers without the kernel. Only local
+ * addresses are supported; install it with {@code
+ * -Djava.nio.channels.spi.AsynchronousChannelProvider=com.localsock.InMemoryAsynchronousChannelProvider}
+ * only where every asynchronous channel talks to this JVM, or open channels through {@link
+ * InMemoryChannelProvider#openAsynchronousSocketChannel()} and friends.
+ *
+ * <p>Operations are attempted when they are started and again whenever the channel becomes ready,
+ * on the thread of the peer whose write or read made it ready. Completion handlers run right there
+ * when possible, so a read completes on the writer's thread without any hand-off; only after {@link
+ * AsyncOperation#MAX_INLINE_COMPLETIONS} nested completions on one thread do they go to the
+ * group's executor.
+ */
+public class InMemoryAsynchronousChannelProvider extends AsynchronousChannelProvider {
+
+    private volatile InMemoryAsynchronousChannelGroup defaultGroup;
+
+    @Override
+    public AsynchronousChannelGroup openAsynchronousChannelGroup(int nThreads, ThreadFactory threadFactory) {
+        return new InMemoryAsynchronousChannelGroup(this, Executors.newFixedThreadPool(nThreads, threadFactory));
+    }
+
+    @Override
+    public AsynchronousChannelGroup openAsynchronousChannelGroup(ExecutorService executor, int initialSize) {
+        return new InMemoryAsynchronousChannelGroup(this, executor);
+    }
+
+    @Override
+    public InMemoryAsynchronousServerSocketChannel openAsynchronousServerSocketChannel(AsynchronousChannelGroup group) {
+        return new InMemoryAsynchronousServerSocketChannel(this, group(group));
+    }
+
+    @Override
+    public InMemoryAsynchronousSocketChannel openAsynchronousSocketChannel(AsynchronousChannelGroup group) {
+        return new InMemoryAsynchronousSocketChannel(this, group(group), null);
+    }
+
+    private InMemoryAsynchronousChannelGroup group(AsynchronousChannelGroup group) {
+        if (group == null) {
+            return defaultGroup();
+        }
+        if (group instanceof InMemoryAsynchronousChannelGroup inMemory && inMemory.provider() == this) {
+            return inMemory;
+        }
+        throw new IllegalChannelGroupException();
+    }
+
+    private InMemoryAsynchronousChannelGroup defaultGroup() {
+        InMemoryAsynchronousChannelGroup group = defaultGroup;
+        if (group == null) {
+            synchronized (this) {
+                group = defaultGroup;
+                if (group == null) {
+                    group = new InMemoryAsynchronousChannelGroup(this, Executors.newCachedThreadPool(runnable -> {
+                        Thread thread = new Thread(runnable, "localsock-async");
+                        thread.setDaemon(true);
+                        return thread;
+                    }));
+                    defaultGroup = group;
+                }
+            }
+        }
+        return group;
+    }
+}
@@ -0,0 +1,126 @@
+package com.localsock;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.channels.AcceptPendingException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.NotYetBoundException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous server socket channel over a non-blocking {@link InMemoryServerSocketChannel}. An
+ * outstanding accept completes on the connecting client's thread, see {@link
+ * InMemoryAsynchronousChannelProvider}.
+ */
+public class InMemoryAsynchronousServerSocketChannel extends AsynchronousServerSocketChannel {
+
+    private final InMemoryAsynchronousChannelProvider provider;
+    private final InMemoryAsynchronousChannelGroup group;
+    private final InMemoryServerSocketChannel server;
+    private final AsyncOperation accepts;
+
+    InMemoryAsynchronousServerSocketChannel(
+            InMemoryAsynchronousChannelProvider provider, InMemoryAsynchronousChannelGroup group) {
+        super(provider);
+        this.provider = provider;
+        this.group = group;
+        this.server = new InMemoryServerSocketChannel(SelectorProvider.provider());
+        this.accepts = new AsyncOperation(
+                group.executor(), () -> (server.readyOps() & SelectionKey.OP_ACCEPT) != 0, AcceptPendingException::new);
+        group.add(this);
+    }
+
+    @Override
+    public AsynchronousServerSocketChannel bind(SocketAddress local, int backlog) throws IOException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+        server.bind(local, backlog);
+        server.configureBlocking(false);
+        server.onAcceptable(ignored -> accepts.readinessChanged(), Runnable::run);
+        return this;
+    }
+
+    @Override
+    public <T> AsynchronousServerSocketChannel setOption(SocketOption<T> name, T value) {
+        server.setOption(name, value);
+        return this;
+    }
+
+    @Override
+    public <T> T getOption(SocketOption<T> name) {
+        return server.getOption(name);
+    }
+
+    @Override
+    public Set<SocketOption<?>> supportedOptions() {
+        return server.supportedOptions();
+    }
+
+    @Override
+    public <A> void accept(A attachment, CompletionHandler<AsynchronousSocketChannel, ? super A> handler) {
+        Objects.requireNonNull(handler, "handler");
+        if (server.getLocalAddress() == null) {
+            throw new NotYetBoundException();
+        }
+        accepts.start(this::tryAccept, 0, TimeUnit.MILLISECONDS, attachment, handler);
+    }
+
+    @Override
+    public Future<AsynchronousSocketChannel> accept() {
+        CompletableFuture<AsynchronousSocketChannel> future = new CompletableFuture<>();
+        accept(future, AsyncOperation.completingFuture());
+        return future;
+    }
+
+    private AsynchronousSocketChannel tryAccept() throws IOException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+        SocketChannel accepted = server.accept();
+        if (accepted == null) {
+            return null;
+        }
+        if (accepted instanceof InMemorySocketChannel inMemory) {
+            return new InMemoryAsynchronousSocketChannel(provider, group, inMemory);
+        }
+        // Connections over the cross-process transports have no asynchronous counterpart
+        accepted.close();
+        throw new IOException("Cannot accept " + accepted.getClass().getSimpleName() + " asynchronously");
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return server.getLocalAddress();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return server.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!server.isOpen()) {
+            return;
+        }
+        try {
+            server.close();
+        } finally {
+            accepts.fail(new AsynchronousCloseException());
+            group.remove(this);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package com.localsock;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.AlreadyConnectedException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ConnectionPendingException;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.UnsupportedAddressTypeException;
+import java.nio.channels.WritePendingException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Asynchronous socket channel over a non-blocking {@link InMemorySocketChannel}. See {@link
+ * InMemoryAsynchronousChannelProvider} for where completion handlers run.
+ */
+public class InMemoryAsynchronousSocketChannel extends AsynchronousSocketChannel {
+
+    private final InMemoryAsynchronousChannelGroup group;
+    private final AsyncOperation reads;
+    private final AsyncOperation writes;
+    private final AtomicBoolean connecting = new AtomicBoolean();
+    // The channel of a connect still waiting for the server, until the connect completes or fails
+    private final AtomicReference<InMemorySocketChannel> pendingConnect = new AtomicReference<>();
+    // Options set before connecting, applied once the channel exists
+    private final Map<SocketOption<?>, Object> options = new ConcurrentHashMap<>();
+    private volatile InMemorySocketChannel channel;
+    private volatile boolean closed;
+
+    InMemoryAsynchronousSocketChannel(
+            InMemoryAsynchronousChannelProvider provider,
+            InMemoryAsynchronousChannelGroup group,
+            InMemorySocketChannel connected) {
+        super(provider);
+        this.group = group;
+        this.reads =
+                new AsyncOperation(group.executor(), () -> isReady(SelectionKey.OP_READ), ReadPendingException::new);
+        this.writes =
+                new AsyncOperation(group.executor(), () -> isReady(SelectionKey.OP_WRITE), WritePendingException::new);
+        group.add(this);
+        if (connected != null) {
+            try {
+                attach(connected);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot configure accepted channel", e);
+            }
+        }
+    }
+
+    private void attach(InMemorySocketChannel connected) throws IOException {
+        connected.configureBlocking(false);
+        for (Map.Entry<SocketOption<?>, Object> option : options.entrySet()) {
+            setOption(connected, option.getKey(), option.getValue());
+        }
+        channel = connected;
+        // Attempts run right on the thread whose write or read made the channel ready
+        connected.onReadable(ignored -> reads.readinessChanged(), Runnable::run);
+        connected.onWritable(ignored -> writes.readinessChanged(), Runnable::run);
+        if (closed) {
+            connected.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void setOption(InMemorySocketChannel channel, SocketOption<T> name, Object value)
+            throws IOException {
+        channel.setOption(name, (T) value);
+    }
+
+    private boolean isReady(int operation) {
+        InMemorySocketChannel current = channel;
+        return current != null && (current.readyOps() & operation) != 0;
+    }
+
+    private InMemorySocketChannel connectedChannel() {
+        InMemorySocketChannel current = channel;
+        if (current == null) {
+            throw new NotYetConnectedException();
+        }
+        return current;
+    }
+
+    @Override
+    public AsynchronousSocketChannel bind(SocketAddress local) {
+        // Like InMemorySocketChannel, the registry takes care of addresses
+        return this;
+    }
+
+    @Override
+    public <T> AsynchronousSocketChannel setOption(SocketOption<T> name, T value) throws IOException {
+        if (!supportedOptions().contains(name)) {
+            throw new UnsupportedOperationException("Unsupported option: " + name);
+        }
+        InMemorySocketChannel current = channel;
+        if (current != null) {
+            current.setOption(name, value);
+        } else {
+            options.put(name, value);
+        }
+        return this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getOption(SocketOption<T> name) throws IOException {
+        InMemorySocketChannel current = channel;
+        if (current != null) {
+            return current.getOption(name);
+        }
+        if (!supportedOptions().contains(name)) {
+            throw new UnsupportedOperationException("Unsupported option: " + name);
+        }
+        Object value = options.get(name);
+        return value != null ? (T) value : (T) (Integer) InMemorySocketChannel.DEFAULT_BUFFER_SIZE;
+    }
+
+    @Override
+    public Set<SocketOption<?>> supportedOptions() {
+        return Set.of(java.net.StandardSocketOptions.SO_SNDBUF, java.net.StandardSocketOptions.SO_RCVBUF);
+    }
+
+    @Override
+    public AsynchronousSocketChannel shutdownInput() throws IOException {
+        connectedChannel().shutdownInput();
+        return this;
+    }
+
+    @Override
+    public AsynchronousSocketChannel shutdownOutput() throws IOException {
+        connectedChannel().shutdownOutput();
+        return this;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() throws IOException {
+        InMemorySocketChannel current = channel;
+        return current != null ? current.getRemoteAddress() : null;
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() throws IOException {
+        InMemorySocketChannel current = channel;
+        return current != null ? current.getLocalAddress() : null;
+    }
+
+    /**
+     * Connect through {@link InMemorySocketRegistry}. Completes on the group's executor once the
+     * server accepts, or right away if the server keeps a pool of connections; no thread waits for
+     * the server in between.
+     */
+    @Override
+    public <A> void connect(SocketAddress remote, A attachment, CompletionHandler<Void, ? super A> handler) {
+        Objects.requireNonNull(handler, "handler");
+        if (!InMemorySocketRegistry.isLocalConnection(remote)) {
+            throw new UnsupportedAddressTypeException();
+        }
+        if (closed) {
+            handler.failed(new ClosedChannelException(), attachment);
+            return;
+        }
+        if (channel != null) {
+            throw new AlreadyConnectedException();
+        }
+        if (!connecting.compareAndSet(false, true)) {
+            throw new ConnectionPendingException();
+        }
+        InMemorySocketChannel client;
+        boolean connected;
+        try {
+            client = InMemorySocketRegistry.openClientChannel(InMemoryNetwork.getDefault(), remote);
+            client.configureBlocking(false);
+            pendingConnect.set(client);
+            connected = client.isConnected() || client.connect(remote);
+        } catch (IOException | RuntimeException e) {
+            pendingConnect.set(null);
+            connecting.set(false);
+            handler.failed(e, attachment);
+            return;
+        }
+        if (connected) {
+            group.executor().execute(() -> finishConnect(client, attachment, handler));
+        } else {
+            client.onConnectable(ignored -> finishConnect(client, attachment, handler), group.executor());
+        }
+    }
+
+    /** Complete a connect once the server has accepted or refused it, exactly once. */
+    private <A> void finishConnect(
+            InMemorySocketChannel client, A attachment, CompletionHandler<Void, ? super A> handler) {
+        try {
+            if (!client.finishConnect()) {
+                return; // Not settled yet; the listener runs again when it is
+            }
+        } catch (IOException | RuntimeException e) {
+            if (pendingConnect.compareAndSet(client, null)) {
+                connecting.set(false);
+                handler.failed(closed ? new AsynchronousCloseException() : e, attachment);
+            }
+            return;
+        }
+        if (!pendingConnect.compareAndSet(client, null)) {
+            return;
+        }
+        try {
+            attach(client);
+        } catch (IOException e) {
+            connecting.set(false);
+            handler.failed(e, attachment);
+            return;
+        }
+        if (closed) {
+            handler.failed(new AsynchronousCloseException(), attachment);
+        } else {
+            handler.completed(null, attachment);
+        }
+    }
+
+    @Override
+    public Future<Void> connect(SocketAddress remote) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        connect(remote, future, AsyncOperation.completingFuture());
+        return future;
+    }
+
+    @Override
+    public <A> void read(
+            ByteBuffer dst, long timeout, TimeUnit unit, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        Objects.requireNonNull(handler, "handler");
+        if (dst.isReadOnly()) {
+            throw new IllegalArgumentException("Read-only buffer");
+        }
+        InMemorySocketChannel current = connectedChannel();
+        reads.start(
+                () -> {
+                    ensureOpen();
+                    int read = current.read(dst);
+                    return read == 0 && dst.hasRemaining() ? null : read;
+                },
+                timeout,
+                unit,
+                attachment,
+                handler);
+    }
+
+    @Override
+    public Future<Integer> read(ByteBuffer dst) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        read(dst, 0, TimeUnit.MILLISECONDS, future, AsyncOperation.completingFuture());
+        return future;
+    }
+
+    @Override
+    public <A> void read(
+            ByteBuffer[] dsts,
+            int offset,
+            int length,
+            long timeout,
+            TimeUnit unit,
+            A attachment,
+            CompletionHandler<Long, ? super A> handler) {
+        Objects.requireNonNull(handler, "handler");
+        Objects.checkFromIndexSize(offset, length, dsts.length);
+        InMemorySocketChannel current = connectedChannel();
+        reads.start(
+                () -> {
+                    ensureOpen();
+                    long read = current.read(dsts, offset, length);
+                    return read == 0 && hasRemaining(dsts, offset, length) ? null : read;
+                },
+                timeout,
+                unit,
+                attachment,
+                handler);
+    }
+
+    @Override
+    public <A> void write(
+            ByteBuffer src, long timeout, TimeUnit unit, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        Objects.requireNonNull(handler, "handler");
+        InMemorySocketChannel current = connectedChannel();
+        writes.start(
+                () -> {
+                    ensureOpen();
+                    int written = current.write(src);
+                    return written == 0 && src.hasRemaining() ? null : written;
+                },
+                timeout,
+                unit,
+                attachment,
+                handler);
+    }
+
+    @Override
+    public Future<Integer> write(ByteBuffer src) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        write(src, 0, TimeUnit.MILLISECONDS, future, AsyncOperation.completingFuture());
+        return future;
+    }
+
+    @Override
+    public <A> void write(
+            ByteBuffer[] srcs,
+            int offset,
+            int length,
+            long timeout,
+            TimeUnit unit,
+            A attachment,
+            CompletionHandler<Long, ? super A> handler) {
+        Objects.requireNonNull(handler, "handler");
+        Objects.checkFromIndexSize(offset, length, srcs.length);
+        InMemorySocketChannel current = connectedChannel();
+        writes.start(
+                () -> {
+                    ensureOpen();
+                    long written = current.write(srcs, offset, length);
+                    return written == 0 && hasRemaining(srcs, offset, length) ? null : written;
+                },
+                timeout,
+                unit,
+                attachment,
+                handler);
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            InMemorySocketChannel current = channel;
+            if (current == null) {
+                // Fails a pending connect, if there is one
+                current = pendingConnect.get();
+            }
+            if (current != null) {
+                current.close();
+            }
+        } finally {
+            reads.fail(new AsynchronousCloseException());
+            writes.fail(new AsynchronousCloseException());
+            group.remove(this);
+        }
+    }
+}
@@ -2,9 +2,13 @@ package com.localsock;
 
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.time.Duration;
+import java.util.Objects;
 
 /**
  * Factory for creating in-memory socket channels. This provides a clean API for creating in-memory
@@ -12,16 +16,76 @@ import java.nio.channels.spi.SelectorProvider;
  */
 public class InMemoryChannelProvider {
 
+    private static volatile WaitStrategy defaultWaitStrategy = WaitStrategy.CONDITION;
+    private static volatile Duration connectTimeout = Duration.ofSeconds(5);
+    private static final InMemoryAsynchronousChannelProvider asynchronousProvider =
+            new InMemoryAsynchronousChannelProvider();
+
+    /**
+     * Set the wait strategy for every channel that has none of its own. Channels pick the change up
+     * from their next wait on.
+     */
+    public static void setDefaultWaitStrategy(WaitStrategy strategy) {
+        defaultWaitStrategy = Objects.requireNonNull(strategy, "strategy");
+    }
+
+    /** The wait strategy of channels that have none of their own, {@link WaitStrategy#CONDITION} initially. */
+    public static WaitStrategy getDefaultWaitStrategy() {
+        return defaultWaitStrategy;
+    }
+
+    /**
+     * Set how long a blocking connect waits for the server to accept, or {@link Duration#ZERO} to
+     * wait indefinitely. Five seconds initially.
+     */
+    public static void setConnectTimeout(Duration timeout) {
+        if (timeout.isNegative()) {
+            throw new IllegalArgumentException("Negative timeout: " + timeout);
+        }
+        connectTimeout = timeout;
+    }
+
+    /** How long a blocking connect waits for the server to accept, zero meaning indefinitely. */
+    public static Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
     /** Create a new in-memory server socket channel. */
     public static InMemoryServerSocketChannel openInMemoryServerSocketChannel() {
         return new InMemoryServerSocketChannel(SelectorProvider.provider());
     }
 
+    /**
+     * Create an unconnected in-memory socket channel, to connect in either blocking or non-blocking
+     * mode, see {@link InMemorySocketChannel#connect(SocketAddress)}.
+     */
+    public static InMemorySocketChannel openInMemorySocketChannel() {
+        return new InMemorySocketChannel(SelectorProvider.provider());
+    }
+
     /** Create a new in-memory socket channel and connect it to the specified address. */
     public static InMemorySocketChannel openInMemorySocketChannel(SocketAddress remote) throws IOException {
         return InMemorySocketRegistry.createClientChannel(remote);
     }
 
+    /** Create a selector for in-memory channels, see {@link InMemorySelector}. */
+    public static InMemorySelector openSelector() {
+        return new InMemorySelector(SelectorProvider.provider());
+    }
+
+    /**
+     * Create an unconnected asynchronous socket channel for in-memory servers, see {@link
+     * InMemoryAsynchronousChannelProvider}.
+     */
+    public static InMemoryAsynchronousSocketChannel openAsynchronousSocketChannel() {
+        return asynchronousProvider.openAsynchronousSocketChannel(null);
+    }
+
+    /** Create an unbound in-memory asynchronous server socket channel. */
+    public static InMemoryAsynchronousServerSocketChannel openAsynchronousServerSocketChannel() {
+        return asynchronousProvider.openAsynchronousServerSocketChannel(null);
+    }
+
     /** Check if an address should use in-memory sockets. */
     public static boolean shouldUseInMemory(SocketAddress address) {
         return InMemorySocketRegistry.isLocalConnection(address);
@@ -30,12 +94,30 @@ public class InMemoryChannelProvider {
     /** Create either a regular or in-memory socket channel based on the target address. */
     public static SocketChannel openSocketChannel(SocketAddress remote) throws IOException {
         if (shouldUseInMemory(remote)) {
-            return openInMemorySocketChannel(remote);
+            return InMemorySocketRegistry.connect(remote);
         } else {
             return SocketChannel.open(remote);
         }
     }
 
+    /**
+     * Transfer file contents to {@code target} like {@link FileChannel#transferTo}, which cannot
+     * recognise in-memory channels and falls back to copying through a temporary buffer for them.
+     * In-memory targets, also behind a transparent channel, get read-only mappings of the file
+     * instead, see {@link InMemorySocketChannel#transferFrom(FileChannel, long, long)}.
+     */
+    public static long transferTo(FileChannel src, long position, long count, WritableByteChannel target)
+            throws IOException {
+        WritableByteChannel channel = target;
+        if (channel instanceof TransparentSocketChannel transparent && transparent.delegate() != null) {
+            channel = transparent.delegate();
+        }
+        if (channel instanceof InMemorySocketChannel inMemory) {
+            return inMemory.transferFrom(src, position, count);
+        }
+        return src.transferTo(position, count, target);
+    }
+
     /** Create either a regular or in-memory server socket channel. */
     public static ServerSocketChannel openServerSocketChannel(boolean forceInMemory) throws IOException {
         if (forceInMemory) {
@@ -0,0 +1,214 @@
+package com.localsock;
+
+import com.localsock.InMemorySocketRegistry.ReusePortGroup;
+import com.localsock.InMemorySocketRegistry.ServerEntry;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.UnsupportedAddressTypeException;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+
+/**
+ * A separate space of in-memory servers: connects only find servers bound in the same network, so
+ * independent components, or test suites running in parallel, can bind the same ports without
+ * colliding. Channels opened without naming a network, through {@link InMemoryChannelProvider}, the
+ * selector providers or {@link InMemorySocketRegistry}, use {@link #getDefault()}. Only the default
+ * network is reachable from other processes over the shared-memory and Unix socket transports.
+ *
+ * <p>Servers are found by port in a table of lazily allocated pages, with a short chain per port
+ * for servers bound to different addresses, so connecting neither formats nor hashes a key.
+ * Lookups take no lock; binding and unbinding lock only the page of the port concerned.
+ */
+public final class InMemoryNetwork {
+
+    private static final Logger LOG = Logger.getLogger(InMemoryNetwork.class.getName());
+
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PORTS = 1 << 16;
+
+    private static final InMemoryNetwork DEFAULT = new InMemoryNetwork();
+
+    // Each page is also the lock for registering and unregistering on its ports
+    private final AtomicReferenceArray<AtomicReferenceArray<ServerEntry>> pages =
+            new AtomicReferenceArray<>(PORTS / PAGE_SIZE);
+
+    /** Create an empty network, isolated from every other one. */
+    public InMemoryNetwork() {}
+
+    /** The network of all channels that were not opened through a network of their own. */
+    public static InMemoryNetwork getDefault() {
+        return DEFAULT;
+    }
+
+    boolean isDefault() {
+        return this == DEFAULT;
+    }
+
+    /** Create a server socket channel that binds in this network. */
+    public InMemoryServerSocketChannel openServerSocketChannel() {
+        return new InMemoryServerSocketChannel(SelectorProvider.provider(), this);
+    }
+
+    /** Create an unconnected socket channel that connects to servers in this network. */
+    public InMemorySocketChannel openSocketChannel() {
+        return new InMemorySocketChannel(SelectorProvider.provider(), this);
+    }
+
+    /** Create a socket channel connected to the server in this network listening on {@code remote}. */
+    public InMemorySocketChannel openSocketChannel(SocketAddress remote) throws IOException {
+        return InMemorySocketRegistry.createClientChannel(this, remote);
+    }
+
+    /** Number of servers bound in this network and not yet collected. */
+    public int getActiveServerCount() {
+        int count = 0;
+        for (int p = 0; p < pages.length(); p++) {
+            AtomicReferenceArray<ServerEntry> page = pages.get(p);
+            for (int slot = 0; page != null && slot < PAGE_SIZE; slot++) {
+                for (ServerEntry entry = page.get(slot); entry != null; entry = entry.next) {
+                    if (entry.get() != null) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Number of connects waiting for servers in this network to accept them. */
+    public int getPendingConnectionCount() {
+        int count = 0;
+        for (int p = 0; p < pages.length(); p++) {
+            AtomicReferenceArray<ServerEntry> page = pages.get(p);
+            for (int slot = 0; page != null && slot < PAGE_SIZE; slot++) {
+                for (ServerEntry entry = page.get(slot); entry != null; entry = entry.next) {
+                    count += entry.pending.size();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The entry of the open server listening on a local address, or null. Among servers sharing the
+     * address through {@code SO_REUSEPORT}, the one whose turn it is.
+     */
+    ServerEntry serverFor(SocketAddress remote) {
+        InetSocketAddress inet = (InetSocketAddress) remote;
+        ServerEntry entry = lookup(inet.getAddress(), inet.getPort());
+        if (entry == null) {
+            return null;
+        }
+        if (entry.group != null) {
+            return entry.group.next();
+        }
+        InMemoryServerSocketChannel server = entry.get();
+        return server != null && server.isOpen() ? entry : null;
+    }
+
+    /** The entry of the server bound to the address and port, or null. */
+    ServerEntry lookup(InetAddress address, int port) {
+        AtomicReferenceArray<ServerEntry> page = pages.get(port >>> PAGE_BITS);
+        return page != null ? lookupIn(page.get(port & (PAGE_SIZE - 1)), address) : null;
+    }
+
+    /**
+     * Register a server socket channel, replacing any server registered for the same address, or
+     * joining those registered for it if all of them share the address through {@code
+     * SO_REUSEPORT}.
+     *
+     * @param backlog most connections waiting to be accepted; {@link
+     *     InMemorySocketRegistry#DEFAULT_BACKLOG} if not positive, and at most {@link
+     *     InMemorySocketRegistry#MAX_BACKLOG}
+     * @throws BindException if only one of this server and the one bound to the address already
+     *     asks to share it
+     */
+    ServerEntry register(InMemoryServerSocketChannel server, SocketAddress local, int backlog, boolean reusePort)
+            throws BindException {
+        InetSocketAddress inet =
+                switch (local) {
+                    case InetSocketAddress address -> address;
+                    case null -> throw new IllegalArgumentException("Address cannot be null");
+                    default -> throw new UnsupportedAddressTypeException();
+                };
+        InetAddress address = inet.getAddress();
+        int port = inet.getPort();
+        int capacity = backlog < 1
+                ? InMemorySocketRegistry.DEFAULT_BACKLOG
+                : Math.min(backlog, InMemorySocketRegistry.MAX_BACKLOG);
+        AtomicReferenceArray<ServerEntry> page = pages.get(port >>> PAGE_BITS);
+        if (page == null) {
+            pages.compareAndSet(port >>> PAGE_BITS, null, new AtomicReferenceArray<>(PAGE_SIZE));
+            page = pages.get(port >>> PAGE_BITS);
+        }
+        synchronized (page) {
+            int slot = port & (PAGE_SIZE - 1);
+            ServerEntry existing = lookupIn(page.get(slot), address);
+            ReusePortGroup group = null;
+            if (existing != null && (reusePort || existing.group != null)) {
+                if (!reusePort || existing.group == null) {
+                    throw new BindException("Address already in use: " + existing.key);
+                }
+                group = existing.group;
+            } else {
+                unlink(page, slot, existing);
+                if (reusePort) {
+                    group = new ReusePortGroup();
+                }
+            }
+            ServerEntry entry = new ServerEntry(server, this, address, port, capacity, group, page.get(slot));
+            page.set(slot, entry);
+            if (group != null) {
+                group.add(entry);
+            }
+            LOG.fine(() -> "Server registered with key: " + entry.key);
+            return entry;
+        }
+    }
+
+    /** Take a server out of the table, unless another server has taken its address since. */
+    void remove(ServerEntry entry) {
+        AtomicReferenceArray<ServerEntry> page = pages.get(entry.port >>> PAGE_BITS);
+        synchronized (page) {
+            unlink(page, entry.port & (PAGE_SIZE - 1), entry);
+            if (entry.group != null) {
+                entry.group.remove(entry);
+            }
+        }
+    }
+
+    private static ServerEntry lookupIn(ServerEntry chain, InetAddress address) {
+        for (ServerEntry entry = chain; entry != null; entry = entry.next) {
+            if (entry.address.equals(address)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take the entry out of the slot's chain if it is still there. Lookups running concurrently
+     * may still see it, as they might have just before.
+     */
+    private static void unlink(AtomicReferenceArray<ServerEntry> page, int slot, ServerEntry entry) {
+        ServerEntry current = page.get(slot);
+        if (entry == null || current == null) {
+            return;
+        }
+        if (current == entry) {
+            page.set(slot, entry.next);
+            return;
+        }
+        for (; current.next != null; current = current.next) {
+            if (current.next == entry) {
+                current.next = entry.next;
+                return;
+            }
+        }
+    }
+}
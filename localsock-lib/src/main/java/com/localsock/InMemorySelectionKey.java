@@ -0,0 +1,118 @@
+package com.localsock;
+
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectionKey;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Registration of a channel with an {@link InMemorySelector}. */
+final class InMemorySelectionKey extends AbstractSelectionKey {
+
+    private final SelectableChannel channel;
+    private final InMemorySelector selector;
+    // The channel whose readiness the key follows: the registered channel itself, or the channel
+    // behind a transparent one
+    private final SelectableChannel source;
+    private volatile int interestOps;
+    // For channels that are not in memory: their key with the selector's system selector
+    private volatile SelectionKey systemKey;
+
+    // Set while the key sits in the selector's ready queue, so that it is queued at most once
+    final AtomicBoolean queued = new AtomicBoolean();
+
+    // Only touched by the selecting thread
+    int readyOps;
+    int selectedIndex = -1;
+    long checkedRound;
+
+    InMemorySelectionKey(SelectableChannel channel, InMemorySelector selector, SelectableChannel source) {
+        this.channel = channel;
+        this.selector = selector;
+        this.source = source;
+    }
+
+    @Override
+    public SelectableChannel channel() {
+        return channel;
+    }
+
+    @Override
+    public Selector selector() {
+        return selector;
+    }
+
+    @Override
+    public int interestOps() {
+        ensureValid();
+        return interestOps;
+    }
+
+    @Override
+    public SelectionKey interestOps(int ops) {
+        ensureValid();
+        if ((ops & ~channel.validOps()) != 0) {
+            throw new IllegalArgumentException("Invalid interest set: " + ops);
+        }
+        interestOps = ops;
+        SelectionKey delegate = systemKey;
+        if (delegate != null) {
+            delegate.interestOps(ops);
+        } else {
+            // The channel may already be ready for the new operations without any further event
+            readinessChanged();
+        }
+        return this;
+    }
+
+    @Override
+    public int readyOps() {
+        ensureValid();
+        return readyOps;
+    }
+
+    void delegateTo(SelectionKey key) {
+        systemKey = key;
+    }
+
+    SelectionKey systemKey() {
+        return systemKey;
+    }
+
+    /** Interest set without the validity check, for the selector. */
+    int currentInterestOps() {
+        return interestOps;
+    }
+
+    /** Operations the channel is ready for right now, regardless of interest. */
+    int channelReadyOps() {
+        return switch (source) {
+            case InMemorySocketChannel socket -> socket.readyOps();
+            case InMemoryServerSocketChannel server -> server.readyOps();
+            case SharedMemorySocketChannel shared -> shared.readyOps();
+            default -> 0;
+        };
+    }
+
+    SelectionKeyList sourceKeys() {
+        return switch (source) {
+            case InMemorySocketChannel socket -> socket.selectionKeys;
+            case InMemoryServerSocketChannel server -> server.selectionKeys;
+            default -> throw new IllegalStateException("Not an in-memory channel: " + source);
+        };
+    }
+
+    /** Called by the channel whenever its readiness may have changed. */
+    void readinessChanged() {
+        if (isValid()) {
+            selector.enqueue(this);
+        }
+    }
+
+    private void ensureValid() {
+        if (!isValid()) {
+            throw new CancelledKeyException();
+        }
+    }
+}
@@ -0,0 +1,559 @@
+package com.localsock;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.IllegalSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.nio.channels.spi.AbstractSelector;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Selector for in-memory channels. Instead of polling every registered channel, channels push
+ * their keys onto a ready queue whenever their readiness may have changed, so a selection only
+ * looks at keys that had an event since the last one, plus the keys it found ready last time. The
+ * latter keeps selection level-triggered like the JDK's selectors: a channel that is still ready
+ * is selected again even if nothing new happened.
+ *
+ * <p>Other channels, such as network sockets, can be registered too. They are handed to a selector
+ * of their own provider, which the selecting thread blocks in while any are registered; in-memory
+ * readiness and {@link #wakeup()} then wake that selector instead of unparking the thread. One
+ * event loop can so serve in-memory and network peers alike.
+ *
+ * <p>Channels connected to another JVM over shared memory cannot push their keys, since their
+ * readiness changes in the other process. Every selection checks them, and while any are
+ * registered a blocked selection wakes up to poll them at intervals growing from 10 microseconds
+ * to a millisecond.
+ *
+ * <p>{@link #select(Consumer)} and its variants hand ready keys straight to the action without
+ * going through the selected-key set.
+ */
+public class InMemorySelector extends AbstractSelector {
+
+    private static final long MIN_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long MAX_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Set<SelectionKey> keys = ConcurrentHashMap.newKeySet();
+    private final Set<SelectionKey> publicKeys = Collections.unmodifiableSet(keys);
+    private final SelectedKeySet selectedKeys = new SelectedKeySet();
+    private final ConcurrentLinkedQueue<InMemorySelectionKey> readyQueue = new ConcurrentLinkedQueue<>();
+    // Keys of shared-memory channels, checked on every selection
+    private final Set<InMemorySelectionKey> polledKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private volatile Thread selectingThread;
+    // Selector for channels that are not in memory, opened on first use
+    private volatile Selector systemSelector;
+    // Set while the selecting thread blocks in systemSelector rather than parking
+    private volatile boolean systemSelecting;
+    private final Object systemSelectorLock = new Object();
+    // Reports keys selected by systemSelector as their counterparts here, without a lambda per select
+    private final Consumer<SelectionKey> systemKeyHandler = this::reportSystemKey;
+    private Consumer<SelectionKey> currentAction;
+    private int systemUpdated;
+
+    // Keys found ready by the last selection and the one before, only touched while selecting
+    private ArrayList<InMemorySelectionKey> readyKeys = new ArrayList<>();
+    private ArrayList<InMemorySelectionKey> previouslyReadyKeys = new ArrayList<>();
+    private long round;
+    private long pollNanos;
+
+    protected InMemorySelector(SelectorProvider provider) {
+        super(provider);
+    }
+
+    @Override
+    public Set<SelectionKey> keys() {
+        ensureOpen();
+        return publicKeys;
+    }
+
+    @Override
+    public Set<SelectionKey> selectedKeys() {
+        ensureOpen();
+        return selectedKeys;
+    }
+
+    @Override
+    public int selectNow() throws IOException {
+        return doSelect(null, -1);
+    }
+
+    @Override
+    public int select(long timeout) throws IOException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Negative timeout");
+        }
+        return doSelect(null, timeout);
+    }
+
+    @Override
+    public int select() throws IOException {
+        return doSelect(null, 0);
+    }
+
+    @Override
+    public int selectNow(Consumer<SelectionKey> action) throws IOException {
+        return doSelect(Objects.requireNonNull(action), -1);
+    }
+
+    @Override
+    public int select(Consumer<SelectionKey> action, long timeout) throws IOException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Negative timeout");
+        }
+        return doSelect(Objects.requireNonNull(action), timeout);
+    }
+
+    @Override
+    public int select(Consumer<SelectionKey> action) throws IOException {
+        return select(action, 0);
+    }
+
+    @Override
+    public Selector wakeup() {
+        // Only the first wakeup per selection needs to wake anything
+        if (!wakeupPending.getAndSet(true)) {
+            Thread thread = selectingThread;
+            if (thread != null) {
+                wake(thread);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    protected SelectionKey register(AbstractSelectableChannel channel, int ops, Object attachment) {
+        ensureOpen();
+        AbstractSelectableChannel source = readinessSource(channel);
+        InMemorySelectionKey key = new InMemorySelectionKey(channel, this, source);
+        key.attach(attachment);
+        if (source instanceof InMemorySocketChannel || source instanceof InMemoryServerSocketChannel) {
+            key.sourceKeys().add(key);
+        } else if (source instanceof SharedMemorySocketChannel) {
+            polledKeys.add(key);
+        } else {
+            try {
+                key.delegateTo(source.register(systemSelector(source), ops, key));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        keys.add(key);
+        key.interestOps(ops);
+        return key;
+    }
+
+    /**
+     * The channel whose readiness decides a registered channel's readiness: the channel itself, or
+     * the channel a transparent channel forwards to.
+     */
+    private static AbstractSelectableChannel readinessSource(AbstractSelectableChannel channel) {
+        if (channel instanceof TransparentSocketChannel transparent) {
+            if (transparent.delegate() instanceof AbstractSelectableChannel delegate) {
+                return delegate;
+            }
+            throw new IllegalSelectorException(); // Nothing to select on before it is connected
+        }
+        return channel;
+    }
+
+    private Selector systemSelector(SelectableChannel channel) throws IOException {
+        synchronized (systemSelectorLock) {
+            if (systemSelector == null) {
+                if (channel.provider() instanceof InMemorySelectorProvider) {
+                    // Neither in memory nor an OS channel, nothing could select it
+                    throw new IllegalSelectorException();
+                }
+                systemSelector = channel.provider().openSelector();
+            }
+            return systemSelector;
+        }
+    }
+
+    @Override
+    protected void implCloseSelector() throws IOException {
+        wakeup();
+        synchronized (this) {
+            for (SelectionKey key : keys) {
+                key.cancel();
+            }
+            processCancelledKeys();
+            readyQueue.clear();
+            readyKeys.clear();
+            previouslyReadyKeys.clear();
+            if (systemSelector != null) {
+                systemSelector.close();
+            }
+        }
+    }
+
+    /** Queue a key for the next selection and wake up a selection in progress. */
+    void enqueue(InMemorySelectionKey key) {
+        if (key.queued.compareAndSet(false, true)) {
+            readyQueue.offer(key);
+            Thread thread = selectingThread;
+            if (thread != null) {
+                wake(thread);
+            }
+        }
+    }
+
+    private void wake(Thread selecting) {
+        if (systemSelecting) {
+            systemSelector.wakeup();
+        } else {
+            LockSupport.unpark(selecting);
+        }
+    }
+
+    /**
+     * Select keys, handing them to {@code action} or adding them to the selected-key set if it is
+     * null. Waits up to {@code timeout} milliseconds for a key to become ready, forever if it is
+     * zero, or not at all if it is negative.
+     */
+    private int doSelect(Consumer<SelectionKey> action, long timeout) throws IOException {
+        synchronized (this) {
+            ensureOpen();
+            long deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+            processCancelledKeys();
+            pollNanos = MIN_POLL_NANOS;
+            int updated = collect(action) + selectSystem(action, -1);
+            if (updated == 0 && timeout >= 0) {
+                selectingThread = Thread.currentThread();
+                try {
+                    begin(); // Interrupting the selecting thread calls wakeup()
+                    while (updated == 0 && !wakeupPending.get() && isOpen()) {
+                        long remaining = timeout == 0 ? 0 : deadline - System.nanoTime();
+                        if (timeout > 0 && remaining <= 0) {
+                            break;
+                        }
+                        updated = await(action, remaining);
+                        processCancelledKeys();
+                        updated += collect(action);
+                    }
+                } finally {
+                    end();
+                    selectingThread = null;
+                }
+            }
+            wakeupPending.set(false);
+            return updated;
+        }
+    }
+
+    /**
+     * Block until an in-memory channel may be ready, a wakeup, or {@code nanos} have passed, forever
+     * if zero. With other channels registered this blocks in their selector.
+     *
+     * @return the number of keys of other channels selected meanwhile
+     */
+    private int await(Consumer<SelectionKey> action, long nanos) throws IOException {
+        if (!polledKeys.isEmpty()) {
+            nanos = nanos == 0 ? pollNanos : Math.min(nanos, pollNanos);
+            pollNanos = Math.min(pollNanos * 2, MAX_POLL_NANOS);
+        }
+        Selector system = systemSelector;
+        if (system == null || system.keys().isEmpty()) {
+            if (readyQueue.isEmpty()) {
+                if (nanos == 0) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, nanos);
+                }
+            }
+            return 0;
+        }
+
+        systemSelecting = true;
+        try {
+            // Checked after announcing where we block, see wake()
+            if (!readyQueue.isEmpty() || wakeupPending.get()) {
+                return selectSystem(action, -1);
+            }
+            return selectSystem(action, nanos == 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos)));
+        } finally {
+            systemSelecting = false;
+        }
+    }
+
+    /**
+     * Select other channels, waiting up to {@code timeout} milliseconds like {@link
+     * #doSelect(Consumer, long)}.
+     */
+    private int selectSystem(Consumer<SelectionKey> action, long timeout) throws IOException {
+        Selector system = systemSelector;
+        if (system == null || system.keys().isEmpty()) {
+            return 0;
+        }
+        currentAction = action;
+        systemUpdated = 0;
+        if (timeout < 0) {
+            system.selectNow(systemKeyHandler);
+        } else {
+            system.select(systemKeyHandler, timeout);
+        }
+        return systemUpdated;
+    }
+
+    private void reportSystemKey(SelectionKey systemKey) {
+        InMemorySelectionKey key = (InMemorySelectionKey) systemKey.attachment();
+        if (key.isValid()) {
+            systemUpdated += report(key, systemKey.readyOps(), currentAction);
+        }
+    }
+
+    private int collect(Consumer<SelectionKey> action) {
+        round++;
+        ArrayList<InMemorySelectionKey> recheck = readyKeys;
+        readyKeys = previouslyReadyKeys;
+        previouslyReadyKeys = recheck;
+
+        int updated = 0;
+        for (int i = 0; i < recheck.size(); i++) {
+            updated += check(recheck.get(i), action);
+        }
+        recheck.clear();
+        InMemorySelectionKey key;
+        while ((key = readyQueue.poll()) != null) {
+            // Cleared before the check, so an event racing with it queues the key again
+            key.queued.set(false);
+            updated += check(key, action);
+        }
+        for (InMemorySelectionKey polled : polledKeys) {
+            updated += check(polled, action);
+        }
+        return updated;
+    }
+
+    /** Check one key against its channel, at most once per selection round. */
+    private int check(InMemorySelectionKey key, Consumer<SelectionKey> action) {
+        if (!key.isValid() || key.checkedRound == round) {
+            return 0;
+        }
+        key.checkedRound = round;
+        int ready = key.channelReadyOps() & key.currentInterestOps();
+        if (ready == 0) {
+            return 0;
+        }
+        readyKeys.add(key);
+        return report(key, ready, action);
+    }
+
+    /** Hand a ready key to {@code action}, or record it in the selected-key set. */
+    private int report(InMemorySelectionKey key, int ready, Consumer<SelectionKey> action) {
+        if (action != null) {
+            key.readyOps = ready;
+            action.accept(key);
+            return 1;
+        }
+        if (key.selectedIndex >= 0) {
+            int previous = key.readyOps;
+            key.readyOps = previous | ready;
+            return (ready & ~previous) != 0 ? 1 : 0;
+        }
+        key.readyOps = ready;
+        selectedKeys.addKey(key);
+        return 1;
+    }
+
+    private void processCancelledKeys() {
+        Set<SelectionKey> cancelled = cancelledKeys();
+        synchronized (cancelled) {
+            if (cancelled.isEmpty()) {
+                return;
+            }
+            for (SelectionKey cancelledKey : cancelled) {
+                InMemorySelectionKey key = (InMemorySelectionKey) cancelledKey;
+                if (key.systemKey() != null) {
+                    key.systemKey().cancel();
+                } else if (!polledKeys.remove(key)) {
+                    key.sourceKeys().remove(key);
+                }
+                keys.remove(key);
+                selectedKeys.remove(key);
+                deregister(key);
+            }
+            cancelled.clear();
+        }
+    }
+
+    private void ensureOpen() {
+        if (!isOpen()) {
+            throw new ClosedSelectorException();
+        }
+    }
+
+    /**
+     * The selected-key set as an array in selection order. Keys know their own slot, so contains and
+     * remove cost O(1); removal leaves a hole that iteration skips and the next growth compacts.
+     */
+    private static final class SelectedKeySet extends AbstractSet<SelectionKey> {
+
+        private InMemorySelectionKey[] slots = new InMemorySelectionKey[16];
+        private int end; // Slots in use, holes included
+        private int size;
+        private int modCount;
+        private final KeyIterator keyIterator = new KeyIterator();
+
+        void addKey(InMemorySelectionKey key) {
+            if (end == slots.length) {
+                if (size < end) {
+                    compact();
+                } else {
+                    slots = Arrays.copyOf(slots, slots.length * 2);
+                }
+            }
+            key.selectedIndex = end;
+            slots[end++] = key;
+            size++;
+            modCount++;
+        }
+
+        private void compact() {
+            int target = 0;
+            for (int i = 0; i < end; i++) {
+                InMemorySelectionKey key = slots[i];
+                if (key != null) {
+                    key.selectedIndex = target;
+                    slots[target++] = key;
+                }
+            }
+            Arrays.fill(slots, target, end, null);
+            end = target;
+        }
+
+        @Override
+        public boolean add(SelectionKey key) {
+            throw new UnsupportedOperationException("Keys are only added by selection");
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof InMemorySelectionKey key
+                    && key.selectedIndex >= 0
+                    && key.selectedIndex < end
+                    && slots[key.selectedIndex] == key;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o)) {
+                return false;
+            }
+            InMemorySelectionKey key = (InMemorySelectionKey) o;
+            slots[key.selectedIndex] = null;
+            key.selectedIndex = -1;
+            size--;
+            modCount++;
+            if (size == 0) {
+                end = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            for (int i = 0; i < end; i++) {
+                if (slots[i] != null) {
+                    slots[i].selectedIndex = -1;
+                    slots[i] = null;
+                }
+            }
+            end = 0;
+            size = 0;
+            modCount++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<SelectionKey> iterator() {
+            // A select loop walks the keys once per selection, so the iterator is handed out again
+            // once it has run out or the keys have changed since, but not to a nested loop
+            KeyIterator it = keyIterator;
+            if (!it.finished && it.expectedModCount == modCount) {
+                return new KeyIterator().reset();
+            }
+            return it.reset();
+        }
+
+        private final class KeyIterator implements Iterator<SelectionKey> {
+            private int next;
+            private int current;
+            private int expectedModCount;
+            // Whether hasNext() has said there are no more keys
+            private boolean finished = true;
+
+            KeyIterator reset() {
+                finished = false;
+                next = advance(0);
+                current = -1;
+                expectedModCount = modCount;
+                return this;
+            }
+
+            private int advance(int from) {
+                while (from < end && slots[from] == null) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (next < end) {
+                    return true;
+                }
+                finished = true;
+                return false;
+            }
+
+            @Override
+            public SelectionKey next() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (next >= end) {
+                    throw new NoSuchElementException();
+                }
+                current = next;
+                next = advance(next + 1);
+                return slots[current];
+            }
+
+            @Override
+            public void remove() {
+                if (current < 0 || slots[current] == null) {
+                    throw new IllegalStateException();
+                }
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                SelectedKeySet.this.remove(slots[current]);
+                expectedModCount = modCount;
+                current = -1;
+            }
+        }
+    }
+}
@@ -22,6 +22,14 @@ public class InMemorySelectorProvider extends SelectorProvider {
         this.systemProvider = SelectorProvider.provider();
     }
 
+    /**
+     * The JDK's provider this one delegates to. Null when this provider was installed through the
+     * service loader, which constructs it while the JDK's own lookup is still in progress.
+     */
+    SelectorProvider systemProvider() {
+        return systemProvider;
+    }
+
     @Override
     public DatagramChannel openDatagramChannel() throws IOException {
         return systemProvider.openDatagramChannel();
@@ -38,8 +46,8 @@ public class InMemorySelectorProvider extends SelectorProvider {
     }
 
     @Override
-    public AbstractSelector openSelector() throws IOException {
-        return systemProvider.openSelector();
+    public AbstractSelector openSelector() {
+        return new InMemorySelector(this);
     }
 
     @Override
@@ -5,22 +5,51 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.SocketAddress;
 import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NotYetBoundException;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /** Modern in-memory server socket channel implementation. */
 public class InMemoryServerSocketChannel extends ServerSocketChannel {
 
     private SocketAddress localAddress;
     private boolean bound = false;
-    private String connectionKey;
-    private final java.util.concurrent.locks.ReentrantLock acceptLock = new java.util.concurrent.locks.ReentrantLock();
-    private final java.util.concurrent.locks.Condition connectionAvailable = acceptLock.newCondition();
+    private volatile InMemorySocketRegistry.ServerEntry registration;
+    private final ReentrantLock acceptLock = new ReentrantLock();
+    // Set up by bind(), before the registry can hand us connections, as nothing waits or signals
+    // on an unbound channel
+    private WaitSignal acceptSignal;
+    // Null means whatever InMemoryChannelProvider's default is at the time of the wait
+    private volatile WaitStrategy waitStrategy;
+    // Connections from other processes, set up by the shared memory or Unix domain socket
+    // listeners if those transports are enabled
+    private final ConcurrentLinkedQueue<SocketChannel> remoteConnections = new ConcurrentLinkedQueue<>();
+    private SharedMemoryTransport.Listener sharedMemoryListener;
+    private UnixSocketTransport.Listener unixSocketListener;
+    // Keys of in-memory selectors this channel is registered with
+    final SelectionKeyList selectionKeys = new SelectionKeyList();
+    private volatile ReadinessCallback acceptableCallback;
+    // SO_REUSEPORT: share the address with other servers that set it too
+    private volatile boolean reusePort;
+    private final InMemoryNetwork network;
 
     protected InMemoryServerSocketChannel(SelectorProvider provider) {
+        this(provider, InMemoryNetwork.getDefault());
+    }
+
+    /** A server channel that binds in {@code network}. */
+    InMemoryServerSocketChannel(SelectorProvider provider, InMemoryNetwork network) {
         super(provider);
+        this.network = network;
     }
 
     @Override
@@ -29,30 +58,120 @@ public class InMemoryServerSocketChannel extends ServerSocketChannel {
             throw new IOException("Already bound");
         }
 
+        acceptSignal = new WaitSignal(acceptLock, this::isAcceptReady);
+        // Register with the network
+        this.registration = network.register(this, local, backlog, reusePort);
         this.localAddress = local;
         this.bound = true;
-        this.connectionKey = makeConnectionKey(local);
+        // Other processes reach the default network only, and the first of the servers sharing an
+        // address in it
+        InMemorySocketRegistry.ReusePortGroup group = registration.group;
+        if (network.isDefault() && (group == null || !group.isShared())) {
+            listenForOtherProcesses(local);
+        }
+
+        return this;
+    }
+
+    /**
+     * Keep up to {@code size} connected channel pairs ready, replenished in the background, or none
+     * with zero. A client connecting through {@link InMemoryChannelProvider#openInMemorySocketChannel(SocketAddress)},
+     * {@link InMemoryChannelProvider#openSocketChannel(SocketAddress)} or a transparent channel
+     * then takes a pair and queues its server half for {@link #accept()}, so its connect completes
+     * without waiting for the accept, as a TCP connect completes in the kernel. Channels connected
+     * by {@link InMemorySocketChannel#connect(SocketAddress)} are built when they connect, since
+     * they exist beforehand, and still wait.
+     *
+     * @throws NotYetBoundException if the channel is not bound yet
+     */
+    public InMemoryServerSocketChannel setConnectionPoolSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative pool size: " + size);
+        }
+        InMemorySocketRegistry.ServerEntry entry = registration;
+        if (entry == null) {
+            throw new NotYetBoundException();
+        }
+        InMemorySocketRegistry.setConnectionPool(entry, size);
+        return this;
+    }
+
+    /**
+     * In-memory connects refused since binding because the accept backlog was full. Such connects
+     * fail at once with a {@link java.net.ConnectException}, as against a full kernel accept queue.
+     */
+    public long getRefusedConnectionCount() {
+        InMemorySocketRegistry.ServerEntry entry = registration;
+        return entry != null ? entry.refused.sum() : 0;
+    }
+
+    /** In-memory connections waiting to be accepted, at most the backlog given to {@code bind}. */
+    public int getPendingConnectionCount() {
+        InMemorySocketRegistry.ServerEntry entry = registration;
+        return entry != null ? entry.pending.size() : 0;
+    }
+
+    /**
+     * Set how blocking accepts wait for connections, or {@code null} to follow {@link
+     * InMemoryChannelProvider#getDefaultWaitStrategy()}. Takes effect from the next wait on.
+     */
+    public InMemoryServerSocketChannel setWaitStrategy(WaitStrategy strategy) {
+        this.waitStrategy = strategy;
+        return this;
+    }
+
+    /** The wait strategy blocking accepts currently use. */
+    public WaitStrategy getWaitStrategy() {
+        WaitStrategy strategy = waitStrategy;
+        return strategy != null ? strategy : InMemoryChannelProvider.getDefaultWaitStrategy();
+    }
 
-        // Register with the registry
-        InMemorySocketRegistry.registerServer(this, local);
+    /**
+     * Have {@code listener} run on the common pool whenever a connection comes in, see {@link
+     * #onAcceptable(Consumer, Executor)}.
+     */
+    public InMemoryServerSocketChannel onAcceptable(Consumer<? super InMemoryServerSocketChannel> listener) {
+        return onAcceptable(listener, ForkJoinPool.commonPool());
+    }
 
+    /**
+     * Have {@code listener} run on {@code executor} whenever a connection comes in, or stop with
+     * {@code null}. Edge-triggered like {@link InMemorySocketChannel#onReadable(Consumer, Executor)}:
+     * the listener should accept until {@code accept()} returns null in non-blocking mode.
+     */
+    public InMemoryServerSocketChannel onAcceptable(
+            Consumer<? super InMemoryServerSocketChannel> listener, Executor executor) {
+        ReadinessCallback callback =
+                listener != null ? new ReadinessCallback(() -> listener.accept(this), executor) : null;
+        acceptableCallback = callback;
+        if (callback != null && bound && isAcceptReady()) {
+            callback.fire();
+        }
         return this;
     }
 
     @Override
     public <T> ServerSocketChannel setOption(SocketOption<T> name, T value) {
+        if (name == StandardSocketOptions.SO_REUSEPORT) {
+            // Takes effect on bind, as with system sockets
+            reusePort = (Boolean) value;
+        }
         // Most socket options don't apply to in-memory channels
         return this;
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public <T> T getOption(SocketOption<T> name) {
+        if (name == StandardSocketOptions.SO_REUSEPORT) {
+            return (T) Boolean.valueOf(reusePort);
+        }
         throw new UnsupportedOperationException("Socket options not supported for in-memory channels");
     }
 
     @Override
     public Set<SocketOption<?>> supportedOptions() {
-        return Set.of(); // No socket options supported
+        return Set.of(StandardSocketOptions.SO_REUSEPORT);
     }
 
     @Override
@@ -74,13 +193,13 @@ public class InMemoryServerSocketChannel extends ServerSocketChannel {
             acceptLock.lock();
             try {
                 SocketChannel connection;
-                while ((connection = InMemorySocketRegistry.acceptConnection(connectionKey)) == null) {
+                int attempt = 0;
+                while ((connection = pollConnection()) == null) {
                     if (!isOpen()) {
                         throw new IOException("Channel closed while waiting");
                     }
                     try {
-                        // Efficient blocking using Condition variable
-                        connectionAvailable.await();
+                        getWaitStrategy().idle(attempt++, acceptSignal);
                     } catch (InterruptedException e) {
                         Thread.currentThread().interrupt();
                         throw new IOException("Interrupted while waiting for connection", e);
@@ -92,10 +211,32 @@ public class InMemoryServerSocketChannel extends ServerSocketChannel {
             }
         } else {
             // Non-blocking mode - return null if no connection
-            return InMemorySocketRegistry.acceptConnection(connectionKey);
+            return pollConnection();
         }
     }
 
+    private SocketChannel pollConnection() {
+        SocketChannel connection = remoteConnections.poll();
+        return connection != null ? connection : InMemorySocketRegistry.acceptConnection(registration);
+    }
+
+    /** Also accept connections from other processes on this host over whichever transports are on. */
+    private void listenForOtherProcesses(SocketAddress local) throws IOException {
+        if (!(local instanceof InetSocketAddress inet)) {
+            return;
+        }
+        SharedMemoryTransport transport = SharedMemoryTransport.get();
+        if (transport != null) {
+            sharedMemoryListener = transport.listen(inet.getPort(), provider(), this::offerRemoteConnection);
+        }
+        unixSocketListener = UnixSocketTransport.listen(inet.getPort(), this::offerRemoteConnection);
+    }
+
+    private void offerRemoteConnection(SocketChannel connection) {
+        remoteConnections.offer(connection);
+        signalConnectionAvailable();
+    }
+
     @Override
     public SocketAddress getLocalAddress() {
         return localAddress;
@@ -103,9 +244,25 @@ public class InMemoryServerSocketChannel extends ServerSocketChannel {
 
     @Override
     protected void implCloseSelectableChannel() {
-        if (connectionKey != null) {
-            InMemorySocketRegistry.unregisterServer(connectionKey);
+        if (registration != null) {
+            InMemorySocketRegistry.unregisterServer(registration);
+        }
+        if (sharedMemoryListener != null) {
+            sharedMemoryListener.close();
+        }
+        if (unixSocketListener != null) {
+            unixSocketListener.close();
         }
+        SocketChannel connection;
+        while ((connection = remoteConnections.poll()) != null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Nobody accepted it, nothing to report to
+            }
+        }
+        // Let a blocked accept() notice the close
+        signalConnectionAvailable();
     }
 
     @Override
@@ -118,19 +275,25 @@ public class InMemoryServerSocketChannel extends ServerSocketChannel {
      * Called by the registry when a client connects.
      */
     public void signalConnectionAvailable() {
-        acceptLock.lock();
-        try {
-            connectionAvailable.signal();
-        } finally {
-            acceptLock.unlock();
+        WaitSignal signal = acceptSignal;
+        if (signal != null) {
+            signal.signal();
         }
+        selectionKeys.readinessChanged();
+        ReadinessCallback callback = acceptableCallback;
+        if (callback != null && isOpen() && isAcceptReady()) {
+            callback.fire();
+        }
+    }
+
+    /** Operations a selector would find this channel ready for right now. */
+    int readyOps() {
+        return bound && isAcceptReady() ? SelectionKey.OP_ACCEPT : 0;
     }
 
-    private String makeConnectionKey(SocketAddress address) {
-        return switch (address) {
-            case InetSocketAddress inet -> inet.getAddress().getHostAddress() + ":" + inet.getPort();
-            case null -> throw new IllegalArgumentException("Address cannot be null");
-            default -> address.toString();
-        };
+    private boolean isAcceptReady() {
+        return !isOpen()
+                || !remoteConnections.isEmpty()
+                || (registration != null && InMemorySocketRegistry.hasPendingConnection(registration));
     }
 }
@@ -1,18 +1,40 @@
 package com.localsock;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.ConnectException;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketOption;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ConnectionPendingException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NoConnectionPendingException;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.UnsupportedAddressTypeException;
 import java.nio.channels.spi.SelectorProvider;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 /**
  * In-memory socket channel implementation using NIO APIs.
@@ -21,42 +43,323 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class InMemorySocketChannel extends SocketChannel {
 
-    private final ReentrantLock readLock = new ReentrantLock();
-    private final ReentrantLock writeLock = new ReentrantLock();
-    private final java.util.concurrent.locks.Condition dataAvailable = readLock.newCondition();
+    // Locks, signals and owned-segment queue, recycled once the connection is fully closed
+    private final ChannelState state = ChannelState.lease();
+    private final int generation = state.generation();
+    private final ReentrantLock readLock = state.readLock;
+    private final ReentrantLock writeLock = state.writeLock;
+    private final WaitSignal dataSignal = state.dataSignal;
+    private final WaitSignal spaceSignal = state.spaceSignal;
 
-    public static final int BUFSIZE = 8192;
-    private static final ThreadLocal<ByteBuffer> BUFFER_POOL =
-            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFSIZE));
+    /**
+     * Default SO_SNDBUF and SO_RCVBUF. Each direction of a connection buffers at most the sender's
+     * SO_SNDBUF plus the receiver's SO_RCVBUF before writes stall.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 32 * 1024;
+
+    /** @deprecated Channels no longer use fixed-size buffers, see {@link #DEFAULT_BUFFER_SIZE}. */
+    @Deprecated
+    public static final int BUFSIZE = DEFAULT_BUFFER_SIZE;
+
+    // Upper bound for SO_SNDBUF/SO_RCVBUF, larger values are clamped like the kernel does
+    static final int MAX_BUFFER_SIZE = 4 * 1024 * 1024;
 
-    // Pool for larger direct buffers to avoid allocation overhead
-    private static final ThreadLocal<ByteBuffer> LARGE_BUFFER_POOL =
-            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFSIZE * 4));
+    // Largest file region transferFrom() maps at once
+    private static final long MAX_FILE_MAPPING = 64L * 1024 * 1024;
 
-    private final ConcurrentLinkedQueue<ByteBuffer> incomingData = new ConcurrentLinkedQueue<>();
-    private final String connectionKey;
-    final AtomicBoolean connected = new AtomicBoolean(false); // Package private for registry access
+    private static final int FRAME_HEADER_SIZE = Integer.BYTES;
+
+    private volatile int sendBufferSize = DEFAULT_BUFFER_SIZE;
+    private volatile int receiveBufferSize = DEFAULT_BUFFER_SIZE;
+
+    // Written by the peer's write(), drained by our read(). Leased from the shared slab pool when
+    // the connection is established and sized from the buffer options in effect at that point.
+    private volatile SpscByteRing incomingData;
+    private DirectBufferPool.Slab incomingSlab;
+    // Buffers handed over by the peer's writeOwned(), interleaved with the ring bytes by position
+    private final ConcurrentLinkedQueue<OwnedSegment> ownedSegments = state.ownedSegments;
+    private final AtomicLong ownedBytes = state.ownedBytes;
+    // Shared with the peer; whoever closes last returns both rings to the pool
+    private AtomicInteger openEnds;
+    // Whether this end has been counted off openEnds, by close() or by link() if it lost the race
+    private volatile boolean endClosed;
+    // How many bytes the peer may have buffered in incomingData, never more than its capacity
+    private volatile int receiveWindow;
+    private volatile String connectionKey;
+    private volatile boolean connected;
     private volatile InMemorySocketChannel peerChannel;
-    private final CountDownLatch connectionReady = new CountDownLatch(1);
+    // Created by connect() and counted down once it has been accepted or has failed
+    private volatile CountDownLatch connectionReady;
+    // Progress of this channel's own connect(), see finishConnect(); accepted channels stay UNCONNECTED
+    private volatile int connectState = UNCONNECTED;
+    // Where connect() looks for servers
+    private final InMemoryNetwork network;
+    // The server a pending connect() is queued with
+    private volatile InMemorySocketRegistry.ServerEntry connectingTo;
+    // Null means whatever InMemoryChannelProvider's default is at the time of the wait
+    private volatile WaitStrategy waitStrategy;
+    // Set on both ends by enableFraming(); writes then go into the ring behind a length prefix
+    private volatile boolean framed;
+    // Length prefix and vector for framed writes, only touched under writeLock. Set up by
+    // enableFraming() before framed is, since most connections never need them, and the vector
+    // grows to the largest gathering write seen.
+    private ByteBuffer frameHeader;
+    private ByteBuffer[] frame;
+    // Keys of in-memory selectors this channel is registered with, also directly through a
+    // transparent channel
+    final SelectionKeyList selectionKeys = new SelectionKeyList();
+    private volatile ReadinessCallback readableCallback;
+    private volatile ReadinessCallback writableCallback;
+    private volatile ReadinessCallback connectableCallback;
+
+    private static final int UNCONNECTED = 0;
+    private static final int CONNECT_PENDING = 1;
+    private static final int CONNECT_ACCEPTED = 2;
+    private static final int CONNECT_FAILED = 3;
+    private static final int CONNECT_FINISHED = 4;
+
+    private static final VarHandle CONNECT_STATE;
+    private static final VarHandle END_CLOSED;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            CONNECT_STATE = lookup.findVarHandle(InMemorySocketChannel.class, "connectState", int.class);
+            END_CLOSED = lookup.findVarHandle(InMemorySocketChannel.class, "endClosed", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     protected InMemorySocketChannel(SelectorProvider provider, String connectionKey) {
+        this(provider, InMemoryNetwork.getDefault(), connectionKey);
+    }
+
+    /** An unconnected channel in the default network, see {@link #connect(SocketAddress)}. */
+    protected InMemorySocketChannel(SelectorProvider provider) {
+        this(provider, InMemoryNetwork.getDefault(), null);
+    }
+
+    /** An unconnected channel that connects to servers in {@code network}. */
+    InMemorySocketChannel(SelectorProvider provider, InMemoryNetwork network) {
+        this(provider, network, null);
+    }
+
+    private InMemorySocketChannel(SelectorProvider provider, InMemoryNetwork network, String connectionKey) {
         super(provider);
+        this.network = network;
         this.connectionKey = connectionKey;
     }
 
+    /**
+     * Connect two channels to each other. Both receive rings are allocated before either side is
+     * marked connected, so neither can write into a peer that has no ring yet.
+     */
+    static void link(InMemorySocketChannel client, InMemorySocketChannel server) {
+        AtomicInteger openEnds = new AtomicInteger(2);
+        client.openEnds = openEnds;
+        server.openEnds = openEnds;
+        client.allocateReceiveRing(server);
+        server.allocateReceiveRing(client);
+        client.setPeerChannel(server);
+        server.setPeerChannel(client);
+        // A client closed after the server claimed it may have looked for its peer before it was
+        // published, and left counting itself off to us
+        if (!client.isOpen()) {
+            client.connected = false;
+            client.closeEnd(server);
+        }
+    }
+
+    private void allocateReceiveRing(InMemorySocketChannel sender) {
+        int window = receiveBufferSize + sender.sendBufferSize;
+        incomingSlab = DirectBufferPool.shared().lease(window, this);
+        incomingData = new SpscByteRing(incomingSlab.buffer);
+        receiveWindow = window;
+    }
+
     public void setPeerChannel(InMemorySocketChannel peer) {
+        // Waiting for data or space only starts once connected, so that is when the state needs us
+        state.attach(this);
         this.peerChannel = peer;
-        this.connected.set(true);
+        this.connected = true;
         // Signal that connection is now ready for I/O
-        this.connectionReady.countDown();
+        connectionSettled();
+        selectionKeys.readinessChanged();
+        fireIfReady(writableCallback, isWriteReady());
+    }
+
+    /** The other end of the connection, or null before it is established. */
+    InMemorySocketChannel peer() {
+        return peerChannel;
+    }
+
+    /** Called by the registry once the server has taken this channel off its queue. */
+    boolean claimConnect() {
+        return CONNECT_STATE.compareAndSet(this, CONNECT_PENDING, CONNECT_ACCEPTED);
+    }
+
+    /** Called by the registry when the server goes away with this channel still queued. */
+    void refuseConnect() {
+        if (peerChannel != null) {
+            // The server half of a prepared pair; its client is connected and sees it close
+            try {
+                close();
+            } catch (IOException e) {
+                // Nothing to report to
+            }
+            return;
+        }
+        if (CONNECT_STATE.compareAndSet(this, CONNECT_PENDING, CONNECT_FAILED)) {
+            connectionSettled();
+            selectionKeys.readinessChanged();
+        }
     }
 
     /**
-     * Wait for the connection to be fully established (peer channel assigned).
-     * This ensures the channel is ready for I/O operations.
+     * Release a thread waiting in connect(), if this channel is connecting by itself at all, and
+     * tell the connectable listener.
      */
-    boolean waitForConnection(long timeout, TimeUnit unit) throws InterruptedException {
-        return connectionReady.await(timeout, unit);
+    private void connectionSettled() {
+        CountDownLatch ready = connectionReady;
+        if (ready != null) {
+            ready.countDown();
+        }
+        fireIfReady(connectableCallback, isConnectReady());
+    }
+
+    /**
+     * Set how blocking reads wait for data, or {@code null} to follow {@link
+     * InMemoryChannelProvider#getDefaultWaitStrategy()}. Takes effect from the next wait on.
+     */
+    public InMemorySocketChannel setWaitStrategy(WaitStrategy strategy) {
+        this.waitStrategy = strategy;
+        return this;
+    }
+
+    /** The wait strategy blocking reads currently use. */
+    public WaitStrategy getWaitStrategy() {
+        WaitStrategy strategy = waitStrategy;
+        return strategy != null ? strategy : InMemoryChannelProvider.getDefaultWaitStrategy();
+    }
+
+    /**
+     * Have {@code listener} run on the common pool whenever data arrives or the peer closes, see
+     * {@link #onReadable(Consumer, Executor)}.
+     */
+    public InMemorySocketChannel onReadable(Consumer<? super InMemorySocketChannel> listener) {
+        return onReadable(listener, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Have {@code listener} run on {@code executor} whenever data arrives or the peer closes, or
+     * stop with {@code null}. Edge-triggered: the listener runs once per burst of events, never
+     * concurrently with itself, and should read until there is nothing left, typically in
+     * non-blocking mode. Data arriving while it runs makes it run once more. Fires right away if
+     * the channel is already readable.
+     */
+    public InMemorySocketChannel onReadable(Consumer<? super InMemorySocketChannel> listener, Executor executor) {
+        readableCallback = listener != null ? new ReadinessCallback(() -> listener.accept(this), executor) : null;
+        fireIfReady(readableCallback, isReadReady());
+        return this;
+    }
+
+    /**
+     * Have {@code listener} run on the common pool whenever the peer frees buffer space, see {@link
+     * #onWritable(Consumer, Executor)}.
+     */
+    public InMemorySocketChannel onWritable(Consumer<? super InMemorySocketChannel> listener) {
+        return onWritable(listener, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Have {@code listener} run on {@code executor} whenever the peer frees buffer space, or stop
+     * with {@code null}. Same edge-triggered semantics as {@link #onReadable(Consumer, Executor)}.
+     */
+    public InMemorySocketChannel onWritable(Consumer<? super InMemorySocketChannel> listener, Executor executor) {
+        writableCallback = listener != null ? new ReadinessCallback(() -> listener.accept(this), executor) : null;
+        fireIfReady(writableCallback, peerChannel != null && isWriteReady());
+        return this;
+    }
+
+    /**
+     * Have {@code listener} run on the common pool once a non-blocking connect can be finished, see
+     * {@link #onConnectable(Consumer, Executor)}.
+     */
+    public InMemorySocketChannel onConnectable(Consumer<? super InMemorySocketChannel> listener) {
+        return onConnectable(listener, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Have {@code listener} run on {@code executor} once a non-blocking {@link #connect(SocketAddress)}
+     * has been accepted or has failed, so that {@link #finishConnect()} completes it, or stop with
+     * {@code null}. This is when {@code OP_CONNECT} becomes ready. Fires right away if it already is.
+     */
+    public InMemorySocketChannel onConnectable(Consumer<? super InMemorySocketChannel> listener, Executor executor) {
+        connectableCallback = listener != null ? new ReadinessCallback(() -> listener.accept(this), executor) : null;
+        fireIfReady(connectableCallback, isConnectReady());
+        return this;
+    }
+
+    private static void fireIfReady(ReadinessCallback callback, boolean ready) {
+        if (callback != null && ready) {
+            callback.fire();
+        }
+    }
+
+    /**
+     * Switch the connection to message mode, in which every write is delivered as one message and
+     * read back whole with {@link #readMessage()}. Applies to both ends and both directions, and
+     * has to happen before either end sends anything. The stream {@code read} methods are not
+     * available in message mode.
+     *
+     * @throws IllegalStateException if data has already been sent on the connection
+     */
+    public InMemorySocketChannel enableFraming() {
+        InMemorySocketChannel peer = peerChannel;
+        if (peer == null) {
+            throw new NotYetConnectedException();
+        }
+        // Both write locks, so no write on either end is half way through while the mode changes.
+        // Only one thread per connection takes them together, so the order does not matter.
+        synchronized (openEnds) {
+            writeLock.lock();
+            peer.writeLock.lock();
+            try {
+                // Held write locks keep both states from being recycled, see releaseRings()
+                if (!isOpen()) {
+                    throw new IllegalStateException("Channel is closed");
+                }
+                if (hasEverReceived() || peer.hasEverReceived()) {
+                    throw new IllegalStateException("Framing must be enabled before any data is sent");
+                }
+                allocateFrame();
+                peer.allocateFrame();
+                framed = true;
+                peer.framed = true;
+            } finally {
+                peer.writeLock.unlock();
+                writeLock.unlock();
+            }
+        }
+        return this;
+    }
+
+    /** Whether the connection is in message mode, see {@link #enableFraming()}. */
+    public boolean isFramed() {
+        return framed;
+    }
+
+    private void allocateFrame() {
+        if (frame == null) {
+            frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+            frame = new ByteBuffer[2];
+        }
+    }
+
+    /** Only meaningful while the state is still this channel's, see {@link #enableFraming()}. */
+    private boolean hasEverReceived() {
+        return incomingData.publishedPosition() > 0 || ownedBytes.get() > 0 || !ownedSegments.isEmpty();
     }
 
     @Override
@@ -67,18 +370,56 @@ public class InMemorySocketChannel extends SocketChannel {
 
     @Override
     public <T> SocketChannel setOption(SocketOption<T> name, T value) {
-        // Most socket options don't apply to in-memory channels
+        if (name == StandardSocketOptions.SO_SNDBUF) {
+            sendBufferSize = checkBufferSize(value);
+            InMemorySocketChannel peer = peerChannel;
+            if (peer != null) {
+                peer.updateReceiveWindow(this);
+            }
+        } else if (name == StandardSocketOptions.SO_RCVBUF) {
+            receiveBufferSize = checkBufferSize(value);
+            InMemorySocketChannel peer = peerChannel;
+            if (peer != null) {
+                updateReceiveWindow(peer);
+            }
+        }
+        // Other socket options don't apply to in-memory channels
         return this;
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public <T> T getOption(SocketOption<T> name) {
-        throw new UnsupportedOperationException("Socket options not supported for in-memory channels");
+        if (name == StandardSocketOptions.SO_SNDBUF) {
+            return (T) Integer.valueOf(sendBufferSize);
+        } else if (name == StandardSocketOptions.SO_RCVBUF) {
+            return (T) Integer.valueOf(receiveBufferSize);
+        }
+        throw new UnsupportedOperationException("Socket option not supported for in-memory channels: " + name);
     }
 
     @Override
     public Set<SocketOption<?>> supportedOptions() {
-        return Set.of(); // No socket options supported
+        return Set.of(StandardSocketOptions.SO_SNDBUF, StandardSocketOptions.SO_RCVBUF);
+    }
+
+    private static int checkBufferSize(Object value) {
+        int size = (Integer) value;
+        if (size <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + size);
+        }
+        return Math.min(size, MAX_BUFFER_SIZE);
+    }
+
+    /** Recompute how much the sender may buffer towards us after a buffer option changed. */
+    private void updateReceiveWindow(InMemorySocketChannel sender) {
+        SpscByteRing ring = incomingData;
+        if (ring == null) {
+            return;
+        }
+        receiveWindow = Math.min(receiveBufferSize + sender.sendBufferSize, ring.capacity());
+        // The window may have grown, so let a stalled writer re-check
+        sender.signalSpaceAvailable();
     }
 
     @Override
@@ -100,33 +441,115 @@ public class InMemorySocketChannel extends SocketChannel {
 
     @Override
     public boolean isConnected() {
-        return connected.get() && peerChannel != null;
+        return connected && peerChannel != null;
     }
 
     @Override
     public boolean isConnectionPending() {
-        return false; // In-memory connections are immediate
+        int state = connectState;
+        return state != UNCONNECTED && state != CONNECT_FINISHED;
     }
 
+    /**
+     * Queue this channel with the in-memory server listening on {@code remote}. In blocking mode,
+     * wait for the server to accept it, for at most {@link
+     * InMemoryChannelProvider#getConnectTimeout()}. In non-blocking mode, return false right away
+     * unless the server has already accepted; {@link #finishConnect()} then completes the
+     * connection once {@code OP_CONNECT} is ready.
+     *
+     * @throws ConnectException if no server is listening on {@code remote}, or its accept backlog
+     *     is full
+     */
     @Override
     public boolean connect(SocketAddress remote) throws IOException {
-        if (connected.get()) {
+        if (isConnected()) {
             return true;
         }
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+        if (!InMemorySocketRegistry.isLocalConnection(remote)) {
+            throw new UnsupportedAddressTypeException();
+        }
+        if (!CONNECT_STATE.compareAndSet(this, UNCONNECTED, CONNECT_PENDING)) {
+            throw new ConnectionPendingException();
+        }
+        connectionReady = new CountDownLatch(1);
+        InMemorySocketRegistry.ServerEntry server = network.serverFor(remote);
+        if (server == null) {
+            close();
+            throw new ConnectException("No server listening on " + remote);
+        }
+        connectionKey = server.key;
+        InMemorySocketRegistry.ServerEntry queuedWith = InMemorySocketRegistry.enqueueConnection(server, this);
+        if (queuedWith == null) {
+            close();
+            throw new ConnectException("Connection refused - accept backlog full on " + server.key);
+        }
+        connectingTo = queuedWith;
+        return finishConnect();
+    }
 
-        // For in-memory connections, we should already be connected via the registry
-        // If not connected, this means the server isn't available
-        if (peerChannel != null) {
-            connected.set(true);
+    @Override
+    public boolean finishConnect() throws IOException {
+        int state = connectState;
+        if (state == CONNECT_FINISHED) {
             return true;
         }
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+        if (state == UNCONNECTED) {
+            if (isConnected()) {
+                return true; // Accepted by a server, never connected by itself
+            }
+            throw new NoConnectionPendingException();
+        }
+        if (isBlocking()) {
+            awaitConnection();
+        }
+        state = connectState;
+        if (state == CONNECT_FAILED) {
+            close();
+            throw new ConnectException("Server on " + connectionKey + " closed before accepting the connection");
+        }
+        if (state == CONNECT_ACCEPTED && isConnected()) {
+            connectState = CONNECT_FINISHED;
+            return true;
+        }
+        return false;
+    }
 
-        throw new IOException("No server listening on " + remote);
+    /** Wait for the server to accept or refuse this channel, giving up after the connect timeout. */
+    private void awaitConnection() throws IOException {
+        Duration timeout = InMemoryChannelProvider.getConnectTimeout();
+        try {
+            if (!timeout.isZero()
+                    && !connectionReady.await(timeout.toNanos(), TimeUnit.NANOSECONDS)
+                    && abandonConnect()) {
+                throw new SocketTimeoutException(
+                        "Connection timeout - server did not accept connection to " + connectionKey);
+            }
+            // Without a timeout, or accepted just as it expired, so linking both ends is all that is left
+            connectionReady.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandonConnect();
+            throw new IOException("Interrupted while waiting for connection", e);
+        }
     }
 
-    @Override
-    public boolean finishConnect() {
-        return isConnected();
+    /** Give up on a pending connect unless the server has already accepted it. */
+    private boolean abandonConnect() throws IOException {
+        if (!CONNECT_STATE.compareAndSet(this, CONNECT_PENDING, CONNECT_FAILED)) {
+            return false;
+        }
+        InMemorySocketRegistry.ServerEntry server = connectingTo;
+        if (server != null) {
+            server.pending.remove(this);
+        }
+        close();
+        return true;
     }
 
     @Override
@@ -139,65 +562,516 @@ public class InMemorySocketChannel extends SocketChannel {
         if (!isOpen()) {
             throw new IOException("Channel is closed");
         }
+        checkStreamMode();
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
 
+        SpscByteRing ring = incomingData;
+        if (ring == null) {
+            throw new NotYetConnectedException();
+        }
+
+        int bytesRead;
         readLock.lock();
         try {
-            ByteBuffer data;
-
-            // In blocking mode, wait for data to become available
-            if (isBlocking()) {
-                // Block until data becomes available
-                while ((data = incomingData.poll()) == null) {
-                    if (!isOpen()) {
-                        throw new IOException("Channel closed while waiting for data");
-                    }
-                    try {
-                        // Efficient blocking using Condition variable
-                        dataAvailable.await();
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        throw new IOException("Interrupted while waiting for data", e);
-                    }
+            for (int attempt = 0; ; attempt++) {
+                // Checked before every ring access: once both ends are closed the ring's memory
+                // goes back to the pool
+                if (!isOpen()) {
+                    throw new IOException("Channel closed while waiting for data");
                 }
-            } else {
-                // Non-blocking mode - return immediately if no data
-                data = incomingData.poll();
-                if (data == null) {
+                if ((bytesRead = transferTo(ring, dst)) > 0) {
+                    break;
+                }
+                if (isPeerClosed() && !hasPendingData(ring)) {
+                    return -1; // Peer closed and everything it sent has been consumed
+                }
+                if (!isBlocking()) {
                     return 0; // No data available
                 }
+                awaitData(attempt);
+            }
+        } finally {
+            readLock.unlock();
+        }
+
+        // We freed ring space, so a writer blocked on a full ring can continue
+        InMemorySocketChannel peer = peerChannel;
+        if (peer != null) {
+            peer.signalSpaceAvailable();
+        }
+        return bytesRead;
+    }
+
+    /**
+     * Copy buffered data into {@code dst} in stream order: ring bytes written before the next owned
+     * segment, then that segment, and so on until {@code dst} is full or nothing is left.
+     */
+    private int transferTo(SpscByteRing ring, ByteBuffer dst) {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            // Read the published position before peeking at the segments: a segment queued later
+            // than that is positioned at or after it, so we never read ring bytes that belong behind
+            // a segment we have not seen yet
+            long published = ring.publishedPosition();
+            OwnedSegment segment = ownedSegments.peek();
+            long ahead = (segment == null ? published : segment.ringPosition()) - ring.readPosition();
+            if (ahead > 0) {
+                int read = ring.read(dst, (int) Math.min(ahead, Integer.MAX_VALUE));
+                total += read;
+                if (read < ahead) {
+                    return total; // dst is full
+                }
+                continue;
+            }
+            if (segment == null) {
+                return total;
+            }
+
+            ByteBuffer data = segment.buffer();
+            int length = Math.min(dst.remaining(), data.remaining());
+            dst.put(dst.position(), data, data.position(), length);
+            dst.position(dst.position() + length);
+            data.position(data.position() + length);
+            total += length;
+            if (!data.hasRemaining()) {
+                ownedSegments.poll();
+                ownedBytes.addAndGet(-segment.length());
+            }
+        }
+        return total;
+    }
+
+    /** Scattering variant of {@link #transferTo(SpscByteRing, ByteBuffer)}. */
+    private long transferTo(SpscByteRing ring, ByteBuffer[] dsts, int offset, int length) {
+        long published = ring.publishedPosition();
+        if (ownedSegments.isEmpty()) {
+            // Plain stream data only: fill all destinations in one pass over the ring
+            long available = published - ring.readPosition();
+            return ring.read(dsts, offset, length, (int) Math.min(available, Integer.MAX_VALUE));
+        }
+
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += transferTo(ring, dsts[i]);
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Pass buffered data to {@code consumer} in place instead of copying it into a destination
+     * buffer. The consumer sees read-only views of the queued data in stream order, each one either
+     * a contiguous stretch of the receive ring or a buffer the peer handed over; how far it advances
+     * a view's position is how much is consumed. Draining stops after {@code maxBytes} bytes, when
+     * nothing is left, or as soon as the consumer leaves bytes in a view.
+     *
+     * <p>Blocks like {@link #read(ByteBuffer)} until there is data to offer. Views must not be used
+     * once the consumer returns. Not available in message mode.
+     *
+     * @return the number of bytes consumed, possibly zero, or -1 if the peer has closed and
+     *     everything has been consumed
+     */
+    public int drainTo(ByteBufferConsumer consumer, int maxBytes) throws IOException {
+        Objects.requireNonNull(consumer, "consumer");
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative: " + maxBytes);
+        }
+        if (!isOpen()) {
+            throw new IOException("Channel is closed");
+        }
+        checkStreamMode();
+        if (maxBytes == 0) {
+            return 0;
+        }
+
+        SpscByteRing ring = incomingData;
+        if (ring == null) {
+            throw new NotYetConnectedException();
+        }
+
+        int drained;
+        readLock.lock();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                if (!isOpen()) {
+                    throw new IOException("Channel closed while waiting for data");
+                }
+                if (hasPendingData(ring)) {
+                    drained = drain(ring, consumer, maxBytes);
+                    break;
+                }
+                if (isPeerClosed() && !hasPendingData(ring)) {
+                    return -1;
+                }
+                if (!isBlocking()) {
+                    return 0;
+                }
+                awaitData(attempt);
             }
+        } finally {
+            readLock.unlock();
+        }
 
-            int bytesToRead = Math.min(dst.remaining(), data.remaining());
-            if (bytesToRead > 0) {
-                int originalLimit = data.limit();
-                data.limit(data.position() + bytesToRead);
-                dst.put(data);
-                data.limit(originalLimit);
+        InMemorySocketChannel peer = peerChannel;
+        if (peer != null) {
+            peer.signalSpaceAvailable();
+        }
+        return drained;
+    }
+
+    /** Offer views to {@code consumer} in the order {@link #transferTo(SpscByteRing, ByteBuffer)} copies. */
+    private int drain(SpscByteRing ring, ByteBufferConsumer consumer, int maxBytes) throws IOException {
+        int total = 0;
+        while (total < maxBytes) {
+            long published = ring.publishedPosition(); // before the peek, see transferTo()
+            OwnedSegment segment = ownedSegments.peek();
+            long ahead = (segment == null ? published : segment.ringPosition()) - ring.readPosition();
+            ByteBuffer view;
+            if (ahead > 0) {
+                view = ring.readableView((int) Math.min(ahead, maxBytes - total));
+            } else if (segment != null) {
+                ByteBuffer data = segment.buffer();
+                view = data.slice(data.position(), Math.min(data.remaining(), maxBytes - total))
+                        .asReadOnlyBuffer();
+            } else {
+                return total;
             }
 
-            // If there's still data in the buffer, put it back
-            if (data.hasRemaining()) {
-                incomingData.offer(data);
+            int offered = view.remaining();
+            consumer.accept(view);
+            int consumed = view.position(); // Views start at zero and cannot grow
+            if (ahead > 0) {
+                ring.skip(consumed);
             } else {
-                // Return small/medium buffers to pool for reuse
-                returnBufferToPool(data);
+                ByteBuffer data = segment.buffer();
+                data.position(data.position() + consumed);
+                if (!data.hasRemaining()) {
+                    ownedSegments.poll();
+                    ownedBytes.addAndGet(-segment.length());
+                }
+            }
+            total += consumed;
+            if (consumed < offered) {
+                return total;
+            }
+        }
+        return total;
+    }
+
+    private boolean hasPendingData(SpscByteRing ring) {
+        // Once closed, the owned-segment queue may already belong to the state's next channel
+        return isOpen() && (!ring.isEmpty() || !ownedSegments.isEmpty());
+    }
+
+    /**
+     * Hand {@code src} over to the peer without copying it. The peer gets the very same buffer from
+     * {@link #readOwned()}, or its bytes through the ordinary {@code read} methods, in stream order
+     * with everything written before and after. The caller must not touch {@code src} afterwards.
+     *
+     * <p>Handed-over bytes count against the peer's receive window, except that one buffer is always
+     * accepted when none is queued, so buffers larger than the window can still be sent.
+     *
+     * @return the number of bytes handed over, which is either all of {@code src} or zero if the
+     *     channel is non-blocking and the window is full
+     */
+    public int writeOwned(ByteBuffer src) throws IOException {
+        if (!isConnected()) {
+            throw new IOException("Channel not connected");
+        }
+        int length = src.remaining();
+        if (length == 0) {
+            return 0;
+        }
+
+        InMemorySocketChannel peer = peerChannel;
+        writeLock.lock();
+        try {
+            while (true) {
+                ensureWritable(peer);
+
+                long queued = peer.ownedBytes.get();
+                if (queued == 0 || queued + length <= peer.receiveWindow) {
+                    peer.ownedBytes.addAndGet(length);
+                    peer.ownedSegments.offer(new OwnedSegment(src, peer.incomingData.writePosition(), length));
+                    peer.signalDataAvailable();
+                    return length;
+                }
+
+                if (!isBlocking()) {
+                    return 0;
+                }
+                awaitSpace(() -> !isOpen() || !peer.isOpen() || peer.ownedBytes.get() + length <= peer.receiveWindow);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Send up to {@code count} bytes of {@code src} starting at {@code position} without copying
+     * them through the heap: the file is mapped read-only and the mappings are handed to the peer
+     * as owned buffers, so the peer's reads copy straight from the page cache and {@link
+     * #readOwned()} returns read-only views of the file. Like {@link FileChannel#transferTo}, this
+     * neither uses nor changes the position of {@code src}.
+     *
+     * <p>The file must not be truncated while the peer still holds unread parts of it.
+     *
+     * @return the number of bytes handed over, less than requested if the file is shorter or the
+     *     channel is non-blocking and the peer's window filled up
+     */
+    public long transferFrom(FileChannel src, long position, long count) throws IOException {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("Negative position or count");
+        }
+        checkStreamMode();
+        InMemorySocketChannel peer = peerChannel;
+        if (peer == null) {
+            throw new NotYetConnectedException();
+        }
+        count = Math.min(count, src.size() - position);
+
+        long transferred = 0;
+        while (transferred < count) {
+            long mappingLength = Math.min(count - transferred, MAX_FILE_MAPPING);
+            MappedByteBuffer mapping = src.map(FileChannel.MapMode.READ_ONLY, position + transferred, mappingLength);
+            // Two slices fit the peer's window, so the next is queued while the peer reads one
+            int sliceLength = Math.max(1, peer.receiveWindow / 2);
+            for (int offset = 0; offset < mappingLength; offset += sliceLength) {
+                int length = (int) Math.min(mappingLength - offset, sliceLength);
+                if (writeOwned(mapping.slice(offset, length)) == 0) {
+                    return transferred + offset;
+                }
             }
+            transferred += mappingLength;
+        }
+        return transferred;
+    }
 
-            return bytesToRead;
+    /**
+     * Take the next chunk of the stream as a buffer. If the peer handed over a buffer with {@link
+     * #writeOwned(ByteBuffer)} and it is next in line, that same buffer is returned without copying
+     * (minus anything already consumed by {@code read}). Bytes the peer wrote with the ordinary
+     * {@code write} methods are copied into a new buffer, up to the next handed-over buffer.
+     *
+     * <p>In message mode the chunk is always exactly one message, see {@link #readMessage()}.
+     *
+     * @return the next chunk, or {@code null} if the channel is non-blocking and nothing is
+     *     available, or the peer has closed and everything has been consumed
+     */
+    public ByteBuffer readOwned() throws IOException {
+        if (!isOpen()) {
+            throw new IOException("Channel is closed");
+        }
+        SpscByteRing ring = incomingData;
+        if (ring == null) {
+            throw new NotYetConnectedException();
+        }
+
+        ByteBuffer chunk;
+        readLock.lock();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                if (!isOpen()) {
+                    throw new IOException("Channel closed while waiting for data");
+                }
+                if ((chunk = takeChunk(ring)) != null) {
+                    break;
+                }
+                if (isPeerClosed() && !hasPendingData(ring)) {
+                    return null;
+                }
+                if (!isBlocking()) {
+                    return null;
+                }
+                awaitData(attempt);
+            }
         } finally {
             readLock.unlock();
         }
+
+        InMemorySocketChannel peer = peerChannel;
+        if (peer != null) {
+            peer.signalSpaceAvailable();
+        }
+        return chunk;
+    }
+
+    private ByteBuffer takeChunk(SpscByteRing ring) {
+        long published = ring.publishedPosition(); // before the peek, see transferTo()
+        OwnedSegment segment = ownedSegments.peek();
+        long buffered = (segment == null ? published : segment.ringPosition()) - ring.readPosition();
+        if (buffered > 0) {
+            int length = (int) buffered;
+            if (framed) {
+                length = ring.peekInt();
+                ring.skip(FRAME_HEADER_SIZE);
+            }
+            ByteBuffer copy = ByteBuffer.allocate(length);
+            ring.read(copy);
+            return copy.flip();
+        }
+        if (segment == null) {
+            return null;
+        }
+        ownedSegments.poll();
+        ownedBytes.addAndGet(-segment.length());
+        return segment.buffer();
+    }
+
+    /**
+     * Read exactly one message, as sent by one write on the other end. Messages the peer handed
+     * over with {@link #writeOwned(ByteBuffer)} come back as that same buffer, others in a new one.
+     * Message mode only.
+     *
+     * @return the message, or {@code null} if the channel is non-blocking and no message is
+     *     available, or the peer has closed and every message has been consumed
+     */
+    public ByteBuffer readMessage() throws IOException {
+        checkMessageMode();
+        return readOwned();
+    }
+
+    /**
+     * Copy exactly one message into {@code dst}. Message mode only.
+     *
+     * @return the length of the message, 0 if the channel is non-blocking and no message is
+     *     available, or -1 if the peer has closed and every message has been consumed
+     * @throws BufferOverflowException if the next message does not fit; it stays queued, and
+     *     {@link #nextMessageLength()} tells how much room it needs
+     */
+    public int readMessage(ByteBuffer dst) throws IOException {
+        checkMessageMode();
+        if (!isOpen()) {
+            throw new IOException("Channel is closed");
+        }
+        SpscByteRing ring = incomingData;
+        if (ring == null) {
+            throw new NotYetConnectedException();
+        }
+
+        int length;
+        readLock.lock();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                if (!isOpen()) {
+                    throw new IOException("Channel closed while waiting for data");
+                }
+                if ((length = peekMessageLength(ring)) >= 0) {
+                    if (length > dst.remaining()) {
+                        throw new BufferOverflowException();
+                    }
+                    takeMessage(ring, dst);
+                    break;
+                }
+                if (isPeerClosed() && !hasPendingData(ring)) {
+                    return -1;
+                }
+                if (!isBlocking()) {
+                    return 0; // Messages are never empty, so this is unambiguous
+                }
+                awaitData(attempt);
+            }
+        } finally {
+            readLock.unlock();
+        }
+
+        InMemorySocketChannel peer = peerChannel;
+        if (peer != null) {
+            peer.signalSpaceAvailable();
+        }
+        return length;
+    }
+
+    /**
+     * Length of the next message, or -1 if no message is available right now. Never blocks.
+     * Message mode only.
+     */
+    public int nextMessageLength() {
+        checkMessageMode();
+        SpscByteRing ring = incomingData;
+        if (ring == null) {
+            throw new NotYetConnectedException();
+        }
+        readLock.lock();
+        try {
+            return isOpen() ? peekMessageLength(ring) : -1;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private int peekMessageLength(SpscByteRing ring) {
+        long published = ring.publishedPosition(); // before the peek, see transferTo()
+        OwnedSegment segment = ownedSegments.peek();
+        long buffered = (segment == null ? published : segment.ringPosition()) - ring.readPosition();
+        if (buffered > 0) {
+            return ring.peekInt();
+        }
+        return segment == null ? -1 : segment.buffer().remaining();
+    }
+
+    /** Move the next message, known to be available and to fit, into {@code dst}. */
+    private void takeMessage(SpscByteRing ring, ByteBuffer dst) {
+        OwnedSegment segment = ownedSegments.peek();
+        if (segment == null || segment.ringPosition() > ring.readPosition()) {
+            int length = ring.peekInt();
+            ring.skip(FRAME_HEADER_SIZE);
+            ring.read(dst, length);
+            return;
+        }
+        dst.put(segment.buffer());
+        ownedSegments.poll();
+        ownedBytes.addAndGet(-segment.length());
     }
 
     @Override
     public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
-        long totalRead = 0;
-        for (int i = offset; i < offset + length && i < dsts.length; i++) {
-            int read = read(dsts[i]);
-            if (read <= 0) break;
-            totalRead += read;
+        Objects.checkFromIndexSize(offset, length, dsts.length);
+        if (!isOpen()) {
+            throw new IOException("Channel is closed");
+        }
+        checkStreamMode();
+        if (!hasRemaining(dsts, offset, length)) {
+            return 0;
+        }
+
+        SpscByteRing ring = incomingData;
+        if (ring == null) {
+            throw new NotYetConnectedException();
+        }
+
+        // One lock, one pass over the ring and one wakeup for all destinations
+        long bytesRead;
+        readLock.lock();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                if (!isOpen()) {
+                    throw new IOException("Channel closed while waiting for data");
+                }
+                if ((bytesRead = transferTo(ring, dsts, offset, length)) > 0) {
+                    break;
+                }
+                if (isPeerClosed() && !hasPendingData(ring)) {
+                    return -1;
+                }
+                if (!isBlocking()) {
+                    return 0;
+                }
+                awaitData(attempt);
+            }
+        } finally {
+            readLock.unlock();
+        }
+
+        InMemorySocketChannel peer = peerChannel;
+        if (peer != null) {
+            peer.signalSpaceAvailable();
         }
-        return totalRead;
+        return bytesRead;
     }
 
     @Override
@@ -205,64 +1079,170 @@ public class InMemorySocketChannel extends SocketChannel {
         if (!isConnected()) {
             throw new IOException("Channel not connected");
         }
+        if (framed) {
+            return (int) writeMessage(new ByteBuffer[] {src}, 0, 1);
+        }
 
+        InMemorySocketChannel peer = peerChannel;
+        SpscByteRing ring = peer.incomingData;
         writeLock.lock();
         try {
             int bytesToWrite = src.remaining();
-            if (bytesToWrite == 0) {
-                return 0;
+            while (src.hasRemaining()) {
+                // Checked before every ring access, see read()
+                ensureWritable(peer);
+
+                int credit = peer.receiveWindow - ring.size();
+                if (credit > 0 && ring.write(src, credit) > 0) {
+                    peer.signalDataAvailable();
+                    continue;
+                }
+
+                // Window is full: non-blocking writers report what they managed so far,
+                // blocking writers wait until the peer's reader drains some of it
+                if (!isBlocking()) {
+                    break;
+                }
+                awaitSpace();
             }
+            return bytesToWrite - src.remaining();
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
-            ByteBuffer copy = getDirectBuffer(bytesToWrite);
-            copy.clear();
-            copy.put(src);
-            copy.flip();
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        Objects.checkFromIndexSize(offset, length, srcs.length);
+        if (!isConnected()) {
+            throw new IOException("Channel not connected");
+        }
+        if (framed) {
+            return writeMessage(srcs, offset, length);
+        }
 
-            peerChannel.incomingData.offer(copy);
+        InMemorySocketChannel peer = peerChannel;
+        SpscByteRing ring = peer.incomingData;
+        writeLock.lock();
+        try {
+            long written = 0;
+            while (hasRemaining(srcs, offset, length)) {
+                ensureWritable(peer);
 
-            // Signal peer that data is available
-            peerChannel.readLock.lock();
-            try {
-                peerChannel.dataAvailable.signal();
-            } finally {
-                peerChannel.readLock.unlock();
-            }
+                // All sources go into one contiguous ring region published at once, so the peer
+                // is woken a single time for e.g. a header and body pair
+                int credit = peer.receiveWindow - ring.size();
+                long copied = credit > 0 ? ring.write(srcs, offset, length, credit) : 0;
+                if (copied > 0) {
+                    written += copied;
+                    peer.signalDataAvailable();
+                    continue;
+                }
 
-            return bytesToWrite;
+                if (!isBlocking()) {
+                    break;
+                }
+                awaitSpace();
+            }
+            return written;
         } finally {
             writeLock.unlock();
         }
     }
 
     /**
-     * Get a direct buffer of appropriate size, using pools when possible.
+     * Send {@code srcs[offset..offset+length)} as one message: a length prefix and the message
+     * bytes, gathered behind it in the frame vector and published to the ring in one go. Messages too large for the
+     * ring are copied into one buffer and handed over like {@link #writeOwned(ByteBuffer)} does.
+     *
+     * @return the message length, or zero if the channel is non-blocking and the message does not
+     *     fit right now, in which case nothing was consumed
      */
-    private ByteBuffer getDirectBuffer(int size) {
-        if (size <= BUFSIZE) {
-            ByteBuffer pooled = BUFFER_POOL.get();
-            if (pooled.capacity() >= size) {
-                return pooled;
+    private long writeMessage(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long messageLength = 0;
+        for (int i = offset; i < offset + length; i++) {
+            messageLength += srcs[i].remaining();
+        }
+        if (messageLength == 0) {
+            return 0;
+        }
+        if (messageLength > Integer.MAX_VALUE - FRAME_HEADER_SIZE) {
+            throw new IllegalArgumentException("Message too large: " + messageLength);
+        }
+
+        InMemorySocketChannel peer = peerChannel;
+        SpscByteRing ring = peer.incomingData;
+        int frameLength = (int) messageLength + FRAME_HEADER_SIZE;
+        if (frameLength > ring.capacity()) {
+            ByteBuffer message = ByteBuffer.allocate((int) messageLength);
+            for (int i = offset; i < offset + length; i++) {
+                message.put(message.position(), srcs[i], srcs[i].position(), srcs[i].remaining());
+                message.position(message.position() + srcs[i].remaining());
+            }
+            if (writeOwned(message.flip()) == 0) {
+                return 0;
             }
-        } else if (size <= BUFSIZE * 4) {
-            ByteBuffer largePooled = LARGE_BUFFER_POOL.get();
-            if (largePooled.capacity() >= size) {
-                return largePooled;
+            for (int i = offset; i < offset + length; i++) {
+                srcs[i].position(srcs[i].limit());
             }
+            return messageLength;
         }
 
-        // For very large messages, allocate directly (no pooling)
-        return ByteBuffer.allocateDirect(size);
+        writeLock.lock();
+        try {
+            BooleanSupplier fits = () -> peer.receiveWindow - ring.size() >= frameLength || ring.isEmpty();
+            while (true) {
+                ensureWritable(peer);
+                if (fits.getAsBoolean()) {
+                    ByteBuffer[] vector = frameVector(length + 1);
+                    vector[0] = frameHeader.clear().putInt((int) messageLength).flip();
+                    System.arraycopy(srcs, offset, vector, 1, length);
+                    try {
+                        ring.write(vector, 0, length + 1, frameLength);
+                    } finally {
+                        // Don't keep the caller's buffers reachable
+                        Arrays.fill(vector, 0, length + 1, null);
+                    }
+                    peer.signalDataAvailable();
+                    return messageLength;
+                }
+                if (!isBlocking()) {
+                    return 0;
+                }
+                awaitSpace(() -> !isOpen() || !peer.isOpen() || fits.getAsBoolean());
+            }
+        } finally {
+            writeLock.unlock();
+        }
     }
 
-    @Override
-    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
-        long totalWritten = 0;
-        for (int i = offset; i < offset + length && i < srcs.length; i++) {
-            int written = write(srcs[i]);
-            totalWritten += written;
-            if (written == 0) break;
+    /** The frame vector, grown to hold at least {@code size} buffers. Called under writeLock. */
+    private ByteBuffer[] frameVector(int size) {
+        if (frame.length < size) {
+            frame = new ByteBuffer[Math.max(size, 2 * frame.length)];
+        }
+        return frame;
+    }
+
+    private void checkStreamMode() {
+        if (framed) {
+            throw new IllegalStateException("Connection is in message mode, use readMessage()");
         }
-        return totalWritten;
+    }
+
+    private void checkMessageMode() {
+        if (!framed) {
+            throw new IllegalStateException("Connection is not in message mode, see enableFraming()");
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -272,12 +1252,60 @@ public class InMemorySocketChannel extends SocketChannel {
 
     @Override
     protected void implCloseSelectableChannel() {
-        connected.set(false);
-        incomingData.clear();
+        if (CONNECT_STATE.compareAndSet(this, CONNECT_PENDING, CONNECT_FAILED)) {
+            InMemorySocketRegistry.ServerEntry server = connectingTo;
+            if (server != null) {
+                server.pending.remove(this);
+            }
+            connectionSettled();
+        }
+        connected = false;
+        signalDataAvailable();
+        signalSpaceAvailable();
+
         InMemorySocketChannel peer = peerChannel;
         if (peer != null) {
-            peer.connected.set(false);
+            closeEnd(peer);
+        } else if (connectState != CONNECT_ACCEPTED) {
+            state.recycle(generation); // Never connected
+        }
+        // Otherwise a server has just claimed it, and link() finishes the close once it is linked
+    }
+
+    /**
+     * Tell the peer this end is closed and count it off, releasing the connection if the peer is
+     * closed too. Runs once, from close() or from link(), whichever sees the peer first.
+     */
+    private void closeEnd(InMemorySocketChannel peer) {
+        if (!END_CLOSED.compareAndSet(this, false, true)) {
+            return;
         }
+        peer.connected = false;
+        // Wake up peer threads so they observe end-of-stream or the broken connection
+        peer.signalDataAvailable();
+        peer.signalSpaceAvailable();
+        if (openEnds.decrementAndGet() == 0) {
+            releaseRings(this, peer);
+        }
+    }
+
+    /** Return both receive rings of a fully closed connection to the slab pool, then both states. */
+    private static void releaseRings(InMemorySocketChannel a, InMemorySocketChannel b) {
+        a.releaseIncomingRing(b);
+        b.releaseIncomingRing(a);
+        a.state.recycle(a.generation);
+        b.state.recycle(b.generation);
+    }
+
+    private void releaseIncomingRing(InMemorySocketChannel sender) {
+        // Both ends are closed, so every reader or writer that gets hold of these locks from now
+        // on bails out before touching the ring. Taking them once waits out any in-flight call.
+        readLock.lock();
+        readLock.unlock();
+        sender.writeLock.lock();
+        sender.writeLock.unlock();
+        DirectBufferPool.shared().release(incomingSlab, this);
+        incomingSlab = null;
     }
 
     @Override
@@ -289,29 +1317,106 @@ public class InMemorySocketChannel extends SocketChannel {
         return connectionKey;
     }
 
-    /**
-     * Return buffer to appropriate pool for reuse if it's a pooled buffer.
-     */
-    private void returnBufferToPool(ByteBuffer buffer) {
-        if (!buffer.isDirect()) {
-            return; // Only pool direct buffers
-        }
-
-        int capacity = buffer.capacity();
-        if (capacity == BUFSIZE) {
-            // Return to small buffer pool (already thread-local, so just clear it)
-            ByteBuffer pooled = BUFFER_POOL.get();
-            if (pooled == buffer) {
-                // This is our pooled buffer, just clear it for next use
-                buffer.clear();
-            }
-        } else if (capacity == BUFSIZE * 4) {
-            // Return to large buffer pool
-            ByteBuffer largePooled = LARGE_BUFFER_POOL.get();
-            if (largePooled == buffer) {
-                buffer.clear();
-            }
+    private void ensureWritable(InMemorySocketChannel peer) throws IOException {
+        if (!isOpen()) {
+            throw new IOException("Channel closed while waiting for buffer space");
+        }
+        if (!peer.isOpen()) {
+            throw new IOException("Connection closed by peer");
         }
-        // For other sizes, let GC handle it
     }
+
+    private void awaitData(int attempt) throws IOException {
+        try {
+            getWaitStrategy().idle(attempt, dataSignal);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for data", e);
+        }
+    }
+
+    /** Wait for the peer to free window space for ring writes. */
+    private void awaitSpace() throws IOException {
+        awaitSpace(this::isWriteReady);
+    }
+
+    /** Wait for the peer to free space, until {@code ready} holds. */
+    private void awaitSpace(BooleanSupplier ready) throws IOException {
+        try {
+            spaceSignal.await(ready);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for buffer space", e);
+        }
+    }
+
+    /** Whether a blocked reader would find something to do, re-checked by waiters before blocking. */
+    boolean isReadReady() {
+        SpscByteRing ring = incomingData;
+        return !isOpen() || isPeerClosed() || (ring != null && hasPendingData(ring));
+    }
+
+    /** Whether a writer blocked on a full window could make progress. */
+    boolean isWriteReady() {
+        InMemorySocketChannel peer = peerChannel;
+        if (!isOpen() || peer == null || !peer.isOpen()) {
+            return true;
+        }
+        return peer.receiveWindow - peer.incomingData.size() > 0;
+    }
+
+    private boolean isPeerClosed() {
+        InMemorySocketChannel peer = peerChannel;
+        return peer != null && !peer.isOpen();
+    }
+
+    /** Operations a selector would find this channel ready for right now. */
+    int readyOps() {
+        int ops = isReadReady() ? SelectionKey.OP_READ : 0;
+        if (peerChannel != null && isWriteReady()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        if (isConnectReady()) {
+            ops |= SelectionKey.OP_CONNECT;
+        }
+        return ops;
+    }
+
+    /** Whether finishConnect() would settle a pending connect right now. */
+    private boolean isConnectReady() {
+        int state = connectState;
+        return (state == CONNECT_ACCEPTED && peerChannel != null) || state == CONNECT_FAILED;
+    }
+
+    /** Whether this channel is closed and its state has gone back to the pool, maybe to another channel. */
+    private boolean isRecycled() {
+        return state.generation() != generation;
+    }
+
+    private void signalDataAvailable() {
+        if (isRecycled()) {
+            return;
+        }
+        dataSignal.signal();
+        selectionKeys.readinessChanged();
+        ReadinessCallback callback = readableCallback;
+        if (callback != null && isOpen() && isReadReady()) {
+            callback.fire();
+        }
+    }
+
+    private void signalSpaceAvailable() {
+        if (isRecycled()) {
+            return;
+        }
+        spaceSignal.signal();
+        selectionKeys.readinessChanged();
+        ReadinessCallback callback = writableCallback;
+        if (callback != null && isOpen() && isWriteReady()) {
+            callback.fire();
+        }
+    }
+
+    /** A buffer handed over by the peer, to be read once the ring reaches {@code ringPosition}. */
+    record OwnedSegment(ByteBuffer buffer, long ringPosition, int length) {}
 }
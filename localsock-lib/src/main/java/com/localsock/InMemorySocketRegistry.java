@@ -1,28 +1,42 @@
 package com.localsock;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
 import java.lang.ref.WeakReference;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 
 /**
- * Registry for managing in-memory socket connections. Uses concurrent collections and weak
- * references to avoid memory leaks.
+ * Registry for managing in-memory socket connections. The static methods that take no {@link
+ * InMemoryNetwork} work on the default one. Each server's entry in its network holds the queue of
+ * clients waiting for it to accept, bounded by the server's backlog. Entries reference their server weakly
+ * to avoid memory leaks; a server dropped without being closed is unregistered by a {@link Cleaner}
+ * soon after it is collected, which also refuses the clients still waiting for it.
  */
 public class InMemorySocketRegistry {
 
     private static final Logger LOG = Logger.getLogger(InMemorySocketRegistry.class.getName());
 
-    // Use weak references to avoid memory leaks
-    private static final ConcurrentHashMap<String, WeakReference<InMemoryServerSocketChannel>> servers =
-            new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<String, ConcurrentLinkedQueue<InMemorySocketChannel>> pendingConnections =
-            new ConcurrentHashMap<>();
+    /** Accept backlog of servers bound without one, the JDK's default. */
+    static final int DEFAULT_BACKLOG = 50;
+
+    /** Largest accept backlog honoured, like Linux' default {@code net.core.somaxconn}. */
+    static final int MAX_BACKLOG = 4096;
+
+    // Unregisters servers that were collected without being closed
+    private static final Cleaner cleaner = Cleaner.create();
 
     /**
      * Check if a connection should use in-memory sockets. Currently checks for localhost connections
@@ -36,113 +50,379 @@ public class InMemorySocketRegistry {
         };
     }
 
-    /** Create an in-memory socket channel for client connections. */
+    /**
+     * Create an in-memory socket channel connected to the server listening on {@code remote},
+     * waiting for it to accept for at most {@link InMemoryChannelProvider#getConnectTimeout()}.
+     */
     public static InMemorySocketChannel createClientChannel(SocketAddress remote) throws IOException {
+        return createClientChannel(InMemoryNetwork.getDefault(), remote);
+    }
+
+    static InMemorySocketChannel createClientChannel(InMemoryNetwork network, SocketAddress remote) throws IOException {
         if (!isLocalConnection(remote)) {
             throw new IllegalArgumentException("Only local connections supported");
         }
+        InMemorySocketChannel clientChannel = openClientChannel(network, remote);
+        if (!clientChannel.isConnected()) {
+            clientChannel.connect(remote);
+        }
+        LOG.fine(() -> "Client connection established on " + clientChannel.getConnectionKey());
+        return clientChannel;
+    }
 
-        String connectionKey = makeConnectionKey(remote);
-        LOG.fine("Client looking for server with key: " + connectionKey);
-
-        // Look for server immediately
-        WeakReference<InMemoryServerSocketChannel> serverRef = servers.get(connectionKey);
-        if (serverRef != null) {
-            InMemoryServerSocketChannel server = serverRef.get();
-            if (server != null && server.isOpen()) {
-                InMemorySocketChannel clientChannel =
-                        new InMemorySocketChannel(SelectorProvider.provider(), connectionKey);
-
-                // Add to pending connections for the server to accept
-                pendingConnections
-                        .computeIfAbsent(connectionKey, k -> new ConcurrentLinkedQueue<>())
-                        .offer(clientChannel);
-                LOG.fine("Client connection queued for server on " + connectionKey);
-
-                // Signal the server that a connection is available
-                server.signalConnectionAvailable();
-
-                // Wait for the server to complete the connection (setPeerChannel)
-                try {
-                    boolean connected = clientChannel.waitForConnection(5, TimeUnit.SECONDS);
-                    if (!connected) {
-                        // Remove from pending queue if connection timed out
-                        ConcurrentLinkedQueue<InMemorySocketChannel> pending = pendingConnections.get(connectionKey);
-                        if (pending != null) {
-                            pending.remove(clientChannel);
-                        }
-                        throw new IOException("Connection timeout - server did not accept connection to " + remote);
-                    }
-
-                    LOG.fine("Client connection established on " + connectionKey);
-                    return clientChannel;
-
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new IOException("Interrupted while waiting for connection", e);
-                }
-            } else {
-                // Clean up dead reference
-                servers.remove(connectionKey);
+    /**
+     * A client channel for the server in {@code network} listening on {@code remote}: the connected
+     * client half of a pair from the server's pool if it keeps one, otherwise a new channel for the
+     * caller to connect.
+     *
+     * @throws ConnectException if the server's accept backlog is full
+     */
+    static InMemorySocketChannel openClientChannel(InMemoryNetwork network, SocketAddress remote)
+            throws ConnectException {
+        ServerEntry entry = network.serverFor(remote);
+        InMemorySocketChannel prepared = entry != null ? connectPrepared(entry) : null;
+        return prepared != null ? prepared : new InMemorySocketChannel(SelectorProvider.provider(), network);
+    }
+
+    /**
+     * Connect to a local server: in memory if it lives in this JVM, otherwise to a server in another
+     * process on this host over shared memory or a Unix domain socket, if those transports are
+     * enabled.
+     */
+    public static SocketChannel connect(SocketAddress remote) throws IOException {
+        SocketChannel channel = open(remote);
+        if (channel == null) {
+            throw new ConnectException("No server listening on " + remote);
+        }
+        if (!channel.isConnected()) {
+            channel.connect(remote);
+        }
+        return channel;
+    }
+
+    /**
+     * A channel to a local server: an unconnected in-memory channel to connect if the server lives
+     * in this JVM, otherwise one already connected over the cross-process transports.
+     *
+     * @return the channel, or null if no server listens on {@code remote} by any of these means
+     * @throws ConnectException if the server in this JVM refuses the connection
+     */
+    static SocketChannel open(SocketAddress remote) throws IOException {
+        if (!isLocalConnection(remote)) {
+            throw new IllegalArgumentException("Only local connections supported");
+        }
+        ServerEntry entry = InMemoryNetwork.getDefault().serverFor(remote);
+        if (entry == null) {
+            InetSocketAddress inet = (InetSocketAddress) remote;
+            SharedMemoryTransport transport = SharedMemoryTransport.get();
+            SocketChannel channel = transport != null ? transport.connect(inet, SelectorProvider.provider()) : null;
+            return channel != null ? channel : UnixSocketTransport.connect(inet.getPort());
+        }
+        InMemorySocketChannel prepared = connectPrepared(entry);
+        return prepared != null ? prepared : new InMemorySocketChannel(SelectorProvider.provider());
+    }
+
+    /**
+     * Connect with a pair from the server's pool: queue the server half for accepting and hand out
+     * the client half, which is connected already, like a TCP connect the kernel has completed.
+     *
+     * @return null if the server keeps no pool or it has run dry
+     * @throws ConnectException if the accept backlog is full
+     */
+    private static InMemorySocketChannel connectPrepared(ServerEntry entry) throws ConnectException {
+        PairedChannelPool pool = entry.pool;
+        InMemorySocketChannel client = pool != null ? pool.take() : null;
+        if (client == null) {
+            return null;
+        }
+        InMemorySocketChannel serverHalf = client.peer();
+        entry = offer(entry, serverHalf);
+        if (entry == null) {
+            pool.giveBack(client);
+            throw new ConnectException("Connection refused - accept backlog full on " + client.getConnectionKey());
+        }
+        InMemoryServerSocketChannel server = entry.get();
+        if (server == null || !server.isOpen()) {
+            // Closed while we were queueing; its unregistering may have missed us
+            entry.pending.remove(serverHalf);
+            PairedChannelPool.closePair(client);
+            throw new ConnectException("Server on " + entry.key + " closed before accepting the connection");
+        }
+        server.signalConnectionAvailable();
+        return client;
+    }
+
+    /** Keep {@code size} connected pairs ready for the server, or none if zero. */
+    static void setConnectionPool(ServerEntry entry, int size) {
+        synchronized (entry) {
+            InMemoryServerSocketChannel server = entry.get();
+            if (server == null || !server.isOpen()) {
+                return; // Unregistered already or about to be, which closes any pool
+            }
+            PairedChannelPool previous = entry.pool;
+            PairedChannelPool pool = size > 0 ? new PairedChannelPool(entry.key, size) : null;
+            if (pool != null) {
+                pool.refill();
+            }
+            entry.pool = pool;
+            if (previous != null) {
+                previous.close();
             }
         }
+    }
+
+    /**
+     * Queue a connecting client for the server to accept, and let the server know. If the server's
+     * accept backlog is full, another server sharing its port through {@code SO_REUSEPORT} may take
+     * the client instead.
+     *
+     * @return the entry of the server the client is queued with, or null if every backlog was full,
+     *     counted as a refused connection
+     */
+    static ServerEntry enqueueConnection(ServerEntry entry, InMemorySocketChannel client) {
+        ServerEntry queued = offer(entry, client);
+        if (queued == null) {
+            return null;
+        }
+        LOG.fine(() -> "Client connection queued for server on " + queued.key);
+        InMemoryServerSocketChannel server = queued.get();
+        if (server != null && server.isOpen()) {
+            server.signalConnectionAvailable();
+        } else {
+            // Closed while we were queueing; its unregistering may have missed us
+            queued.pending.remove(client);
+            client.refuseConnect();
+        }
+        return queued;
+    }
 
-        throw new IOException("No server listening on " + remote);
+    /** Queue a channel with the server or, if its backlog is full, with another in its group. */
+    private static ServerEntry offer(ServerEntry entry, InMemorySocketChannel channel) {
+        if (entry.pending.offer(channel)) {
+            return entry;
+        }
+        ReusePortGroup group = entry.group;
+        if (group != null) {
+            for (ServerEntry member : group.members) {
+                if (member != entry && member.pending.offer(channel)) {
+                    return member;
+                }
+            }
+        }
+        entry.refused.increment();
+        return null;
     }
 
-    /** Register a server socket channel. */
+    /**
+     * Register a server socket channel in the default network.
+     *
+     * @deprecated Servers register themselves when bound; this registers one with the default
+     *     backlog, without {@code SO_REUSEPORT}.
+     */
+    @Deprecated
     public static void registerServer(InMemoryServerSocketChannel server, SocketAddress local) {
-        String connectionKey = makeConnectionKey(local);
-        servers.put(connectionKey, new WeakReference<>(server));
-        LOG.fine("Server registered with key: " + connectionKey);
+        try {
+            InMemoryNetwork.getDefault().register(server, local, DEFAULT_BACKLOG, false);
+        } catch (BindException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    /** Accept a pending connection for a server. */
+    /**
+     * Accept a pending connection for the server registered in the default network under a key of
+     * the form {@code host-address:port}.
+     *
+     * @deprecated Use {@link InMemoryServerSocketChannel#accept()}.
+     */
+    @Deprecated
     public static InMemorySocketChannel acceptConnection(String connectionKey) {
-        ConcurrentLinkedQueue<InMemorySocketChannel> pending = pendingConnections.get(connectionKey);
-        if (pending != null) {
-            InMemorySocketChannel clientChannel = pending.poll();
-            if (clientChannel != null) {
-                // Create server-side channel
-                InMemorySocketChannel serverChannel =
-                        new InMemorySocketChannel(SelectorProvider.provider(), connectionKey);
-
-                // Connect the channels bidirectionally
-                clientChannel.setPeerChannel(serverChannel);
-                serverChannel.setPeerChannel(clientChannel);
-
-                LOG.fine("Connection established on " + connectionKey);
-                return serverChannel;
+        ServerEntry entry = entryFor(connectionKey);
+        return entry != null ? acceptConnection(entry) : null;
+    }
+
+    /**
+     * Clean up resources for the server registered in the default network under a key of the form
+     * {@code host-address:port}.
+     *
+     * @deprecated Closing the server channel unregisters it.
+     */
+    @Deprecated
+    public static void unregisterServer(String connectionKey) {
+        ServerEntry entry = entryFor(connectionKey);
+        if (entry != null) {
+            unregisterServer(entry);
+        }
+    }
+
+    /** The entry a connection key like {@link ServerEntry#key} names in the default network, or null. */
+    private static ServerEntry entryFor(String connectionKey) {
+        int colon = connectionKey.lastIndexOf(':');
+        if (colon < 0) {
+            return null;
+        }
+        try {
+            // A literal address, so no name lookup
+            InetAddress address = InetAddress.getByName(connectionKey.substring(0, colon));
+            return InMemoryNetwork.getDefault().lookup(address, Integer.parseInt(connectionKey.substring(colon + 1)));
+        } catch (UnknownHostException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Accept a pending connection for a server. */
+    static InMemorySocketChannel acceptConnection(ServerEntry entry) {
+        InMemorySocketChannel clientChannel;
+        while ((clientChannel = entry.pending.poll()) != null) {
+            if (clientChannel.peer() != null) {
+                return clientChannel; // The server half of a prepared pair
             }
+            if (!clientChannel.claimConnect()) {
+                continue; // Gave up waiting in the meantime
+            }
+            // Create server-side channel
+            InMemorySocketChannel serverChannel = new InMemorySocketChannel(SelectorProvider.provider(), entry.key);
+
+            // Connect the channels bidirectionally
+            InMemorySocketChannel.link(clientChannel, serverChannel);
+
+            LOG.fine(() -> "Connection established on " + entry.key);
+            return serverChannel;
         }
         return null;
     }
 
-    /** Clean up resources for a server. */
-    public static void unregisterServer(String connectionKey) {
-        servers.remove(connectionKey);
-        pendingConnections.remove(connectionKey);
-        LOG.fine("Server unregistered from " + connectionKey);
+    /** Whether a client is waiting to be accepted by the server registered under the entry. */
+    static boolean hasPendingConnection(ServerEntry entry) {
+        return !entry.pending.isEmpty();
     }
 
-    private static String makeConnectionKey(SocketAddress address) {
-        return switch (address) {
-            case InetSocketAddress inet -> inet.getAddress().getHostAddress() + ":" + inet.getPort();
-            case null -> throw new IllegalArgumentException("Address cannot be null");
-            default -> address.toString();
-        };
+    /**
+     * Clean up resources for a server, unless another server has taken its address since. Runs at
+     * most once per entry, whether the server is closed or collected first.
+     */
+    static void unregisterServer(ServerEntry entry) {
+        entry.cleanable.clean();
     }
 
-    /** Get statistics about active connections. */
+    private static void release(ServerEntry entry) {
+        entry.network.remove(entry);
+        synchronized (entry) {
+            if (entry.pool != null) {
+                entry.pool.close();
+                entry.pool = null;
+            }
+        }
+        InMemorySocketChannel client;
+        while ((client = entry.pending.poll()) != null) {
+            client.refuseConnect();
+        }
+        LOG.fine(() -> "Server unregistered from " + entry.key);
+    }
+
+    /** Number of servers bound in the default network, see {@link InMemoryNetwork#getActiveServerCount()}. */
     public static int getActiveServerCount() {
-        // Clean up dead references while counting
-        servers.entrySet().removeIf(entry -> entry.getValue().get() == null);
-        return servers.size();
+        return InMemoryNetwork.getDefault().getActiveServerCount();
     }
 
+    /** Number of connects waiting to be accepted in the default network. */
     public static int getPendingConnectionCount() {
-        return pendingConnections.values().stream()
-                .mapToInt(ConcurrentLinkedQueue::size)
-                .sum();
+        return InMemoryNetwork.getDefault().getPendingConnectionCount();
+    }
+
+    /** A registered server, the clients waiting for it, and the next server on the same port. */
+    static final class ServerEntry extends WeakReference<InMemoryServerSocketChannel> {
+        final InMemoryNetwork network;
+        final InetAddress address;
+        final int port;
+        // For logging and InMemorySocketChannel.getConnectionKey(), formatted once per server
+        final String key;
+        // Bounded by the backlog; full means refusing, as with a full kernel accept queue
+        final ArrayBlockingQueue<InMemorySocketChannel> pending;
+        final LongAdder refused = new LongAdder();
+        // Connected pairs kept ready, if the server asked for them
+        volatile PairedChannelPool pool;
+        // The servers sharing the address and port with this one, if it asked for SO_REUSEPORT
+        final ReusePortGroup group;
+        // Only changed under the lock of the network's page for the port
+        volatile ServerEntry next;
+        // Runs release() once the server is closed or collected
+        final Cleaner.Cleanable cleanable;
+
+        ServerEntry(
+                InMemoryServerSocketChannel server,
+                InMemoryNetwork network,
+                InetAddress address,
+                int port,
+                int backlog,
+                ReusePortGroup group,
+                ServerEntry next) {
+            super(server);
+            this.network = network;
+            this.address = address;
+            this.port = port;
+            this.key = address.getHostAddress() + ":" + port;
+            this.pending = new ArrayBlockingQueue<>(backlog);
+            this.group = group;
+            this.next = next;
+            // The action must not reach the server, or it would never become unreachable
+            this.cleanable = cleaner.register(server, new Release(this));
+        }
+    }
+
+    /** Cleaning action of an entry, holding nothing but the entry itself. */
+    private record Release(ServerEntry entry) implements Runnable {
+        @Override
+        public void run() {
+            release(entry);
+        }
+    }
+
+    /**
+     * Servers bound to the same address and port through {@code SO_REUSEPORT}. Each keeps its own
+     * accept queue; connects take turns among them, so acceptors on different threads do not
+     * contend.
+     */
+    static final class ReusePortGroup {
+        // Replaced under the page lock like ServerEntry.next, never modified
+        volatile ServerEntry[] members = new ServerEntry[0];
+        private final AtomicInteger turn = new AtomicInteger();
+
+        /** The next open member in round-robin order, or null if none is left. */
+        ServerEntry next() {
+            ServerEntry[] current = members;
+            int start = turn.getAndIncrement();
+            for (int i = 0; i < current.length; i++) {
+                ServerEntry member = current[Math.floorMod(start + i, current.length)];
+                InMemoryServerSocketChannel server = member.get();
+                if (server != null && server.isOpen()) {
+                    return member;
+                }
+            }
+            return null;
+        }
+
+        boolean isShared() {
+            return members.length > 1;
+        }
+
+        void add(ServerEntry entry) {
+            ServerEntry[] current = members;
+            ServerEntry[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = entry;
+            members = updated;
+        }
+
+        void remove(ServerEntry entry) {
+            ServerEntry[] current = members;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == entry) {
+                    ServerEntry[] updated = new ServerEntry[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    members = updated;
+                    return;
+                }
+            }
+        }
     }
 }
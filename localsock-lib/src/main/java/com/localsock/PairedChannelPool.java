@@ -0,0 +1,82 @@
+package com.localsock;
+
+import java.io.IOException;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connected channel pairs a server keeps ready for connecting clients, see {@link
+ * InMemoryServerSocketChannel#setConnectionPoolSize(int)}. Only the client halves are held; the
+ * server half of each is its peer. Pairs taken out are replaced on the common pool, so building
+ * channels and leasing their rings happens off the connecting thread.
+ */
+final class PairedChannelPool {
+
+    private final String connectionKey;
+    private final ArrayBlockingQueue<InMemorySocketChannel> ready;
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private volatile boolean closed;
+
+    PairedChannelPool(String connectionKey, int size) {
+        this.connectionKey = connectionKey;
+        this.ready = new ArrayBlockingQueue<>(size);
+    }
+
+    /** A connected client half, or null if the pool has run dry for the moment. */
+    InMemorySocketChannel take() {
+        InMemorySocketChannel client = ready.poll();
+        if (refilling.compareAndSet(false, true)) {
+            ForkJoinPool.commonPool().execute(this::refill);
+        }
+        return client;
+    }
+
+    /** Return a pair that could not be handed out, or close it if there is no room left. */
+    void giveBack(InMemorySocketChannel client) {
+        if (closed || !ready.offer(client)) {
+            closePair(client);
+        }
+    }
+
+    /** Fill the pool up. Called once up front, then through {@link #take()} only. */
+    void refill() {
+        refilling.set(true);
+        do {
+            try {
+                while (!closed && ready.remainingCapacity() > 0) {
+                    InMemorySocketChannel client =
+                            new InMemorySocketChannel(SelectorProvider.provider(), connectionKey);
+                    InMemorySocketChannel.link(
+                            client, new InMemorySocketChannel(SelectorProvider.provider(), connectionKey));
+                    giveBack(client);
+                }
+            } finally {
+                refilling.set(false);
+            }
+            // A pair taken after the loop ended but before the flag cleared scheduled nothing
+        } while (!closed && ready.remainingCapacity() > 0 && refilling.compareAndSet(false, true));
+        if (closed) {
+            close();
+        }
+    }
+
+    /** Close every pair still held, and those a refill running right now adds. */
+    void close() {
+        closed = true;
+        InMemorySocketChannel client;
+        while ((client = ready.poll()) != null) {
+            closePair(client);
+        }
+    }
+
+    static void closePair(InMemorySocketChannel client) {
+        try {
+            client.peer().close();
+            client.close();
+        } catch (IOException e) {
+            // Never connected to anybody, nothing to report to
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.localsock;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+/**
+ * Directories and files only their owner can open, for the cross-process transports. Whoever can
+ * open a transport's files can read and inject its connection traffic. On file systems without
+ * POSIX permissions these fall back to the defaults and skip the checks.
+ */
+final class PrivateFiles {
+
+    private static final boolean POSIX =
+            FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+    static final FileAttribute<?>[] DIRECTORY = ownerOnly("rwx------");
+    static final FileAttribute<?>[] FILE = ownerOnly("rw-------");
+
+    private PrivateFiles() {}
+
+    /** A directory under {@code base} named {@code prefix-<user>}, so no two users share one. */
+    static Path userDirectory(Path base, String prefix) {
+        String user = System.getProperty("user.name", "unknown").replaceAll("[^A-Za-z0-9._-]", "_");
+        return base.resolve(prefix + "-" + user);
+    }
+
+    /**
+     * Create {@code directory} accessible to its owner only, unless it exists. A directory that
+     * existed already is checked when {@code check} is set, see {@link #checkPrivate(Path)}.
+     */
+    static void createDirectory(Path directory, boolean check) throws IOException {
+        Files.createDirectories(directory, DIRECTORY);
+        if (check) {
+            checkPrivate(directory);
+        }
+    }
+
+    /** Refuse a directory someone else created in our place, or one that others may open. */
+    static void checkPrivate(Path directory) throws IOException {
+        if (!POSIX) {
+            return;
+        }
+        PosixFileAttributes attributes =
+                Files.readAttributes(directory, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        String user = System.getProperty("user.name");
+        boolean shared = attributes.permissions().stream()
+                .anyMatch(permission -> permission != PosixFilePermission.OWNER_READ
+                        && permission != PosixFilePermission.OWNER_WRITE
+                        && permission != PosixFilePermission.OWNER_EXECUTE);
+        if (!attributes.isDirectory() || shared || !attributes.owner().getName().equals(user)) {
+            throw new IOException(directory + " must be a directory that only " + user + " can access");
+        }
+    }
+
+    private static FileAttribute<?>[] ownerOnly(String permissions) {
+        if (!POSIX) {
+            return new FileAttribute<?>[0];
+        }
+        Set<PosixFilePermission> set = PosixFilePermissions.fromString(permissions);
+        return new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(set)};
+    }
+}
@@ -0,0 +1,62 @@
+package com.localsock;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A readiness listener bound to its executor. Edge-triggered: every event that makes the channel
+ * ready fires it, but events that arrive before a scheduled run has started are folded into that
+ * run, and events during a run cause exactly one more run afterwards. A listener that drains the
+ * channel every time it runs therefore never misses data, and never runs concurrently with itself.
+ */
+final class ReadinessCallback {
+
+    private static final int IDLE = 0;
+    private static final int SCHEDULED = 1;
+    private static final int RUNNING = 2;
+    private static final int RUNNING_AGAIN = 3;
+
+    private final Runnable listener;
+    private final Executor executor;
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+
+    ReadinessCallback(Runnable listener, Executor executor) {
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    /** Record an event, scheduling a run unless one is already due. */
+    void fire() {
+        while (true) {
+            int current = state.get();
+            if (current == IDLE) {
+                if (state.compareAndSet(IDLE, SCHEDULED)) {
+                    executor.execute(this::run);
+                    return;
+                }
+            } else if (current == RUNNING) {
+                if (state.compareAndSet(RUNNING, RUNNING_AGAIN)) {
+                    return;
+                }
+            } else {
+                return; // A run that has not started yet covers this event too
+            }
+        }
+    }
+
+    private void run() {
+        // Reruns stay on this thread, so a direct executor never recurses
+        do {
+            state.set(RUNNING);
+            try {
+                listener.run();
+            } catch (RuntimeException | Error e) {
+                if (!state.compareAndSet(RUNNING, IDLE)) {
+                    state.set(SCHEDULED);
+                    executor.execute(this::run);
+                }
+                throw e;
+            }
+        } while (!state.compareAndSet(RUNNING, IDLE));
+    }
+}
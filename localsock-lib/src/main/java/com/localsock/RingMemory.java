@@ -0,0 +1,33 @@
+package com.localsock;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Off-heap memory behind one pooled ring slab. This is the Java 21 variant, backed by a plain
+ * direct buffer whose memory is reclaimed by its Cleaner once the buffer becomes unreachable. On
+ * Java 22 and later the multi-release jar replaces it with a variant that gives each slab its own
+ * Arena, keeps a bounded number of freed slabs for reuse and closes the Arenas of the rest, so
+ * pooled sizes never wait for the GC.
+ */
+final class RingMemory {
+
+    private final ByteBuffer buffer;
+
+    private RingMemory(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    static RingMemory allocate(int capacity) {
+        return new RingMemory(ByteBuffer.allocateDirect(capacity));
+    }
+
+    /** The memory as a buffer spanning all of it. */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /** Give the memory back. The buffer must not be used afterwards. */
+    void free() {
+        // Nothing to do eagerly, the buffer's Cleaner runs once it is unreachable
+    }
+}
@@ -0,0 +1,42 @@
+package com.localsock;
+
+import java.util.Arrays;
+
+/**
+ * The selection keys of one in-memory channel, told whenever the channel's readiness may have
+ * changed. Copy-on-write over a plain array: keys come and go rarely, but the list is walked on
+ * every read and write, where an empty list must cost no more than a volatile read.
+ */
+final class SelectionKeyList {
+
+    private static final InMemorySelectionKey[] NONE = new InMemorySelectionKey[0];
+
+    private volatile InMemorySelectionKey[] keys = NONE;
+
+    synchronized void add(InMemorySelectionKey key) {
+        InMemorySelectionKey[] current = keys;
+        InMemorySelectionKey[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = key;
+        keys = updated;
+    }
+
+    synchronized void remove(InMemorySelectionKey key) {
+        InMemorySelectionKey[] current = keys;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == key) {
+                InMemorySelectionKey[] updated = new InMemorySelectionKey[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, updated.length - i);
+                keys = updated;
+                return;
+            }
+        }
+    }
+
+    /** Have every selector the channel is registered with check it again. */
+    void readinessChanged() {
+        for (InMemorySelectionKey key : keys) {
+            key.readinessChanged();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.localsock;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Cross-process twin of {@link SpscByteRing}: a single-producer/single-consumer byte ring whose
+ * head and tail counters live in the shared memory region itself, so the producer and consumer may
+ * sit in different JVMs mapping the same file. Layout of the region: tail counter, head counter on
+ * its own cache line, then the power-of-two sized data area.
+ *
+ * <p>Each side keeps its cached view of the other side's counter in this object, so producer and
+ * consumer must each use their own instance.
+ */
+final class SharedByteRing {
+
+    static final int HEADER_SIZE = 128;
+
+    private static final int TAIL_OFFSET = 0;
+    private static final int HEAD_OFFSET = 64;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer header;
+    private final ByteBuffer data;
+    private final int capacity;
+    private final long mask;
+    private long headCache;
+    private long tailCache;
+
+    /** Wrap {@code region}, a direct buffer of {@link #HEADER_SIZE} plus a power of two bytes. */
+    SharedByteRing(ByteBuffer region) {
+        int capacity = region.capacity() - HEADER_SIZE;
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a positive power of two: " + capacity);
+        }
+        this.header = region.slice(0, HEADER_SIZE);
+        this.data = region.slice(HEADER_SIZE, capacity);
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+    }
+
+    /** Size of a region holding a ring of {@code capacity} bytes. */
+    static int regionSize(int capacity) {
+        return HEADER_SIZE + capacity;
+    }
+
+    /** Number of bytes currently readable. Safe to call from either side. */
+    int size() {
+        long head = (long) LONGS.getAcquire(header, HEAD_OFFSET);
+        long tail = (long) LONGS.getAcquire(header, TAIL_OFFSET);
+        return (int) (tail - head);
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Number of bytes that currently fit. Safe to call from either side. */
+    int free() {
+        return capacity - size();
+    }
+
+    /**
+     * Copy as many bytes from {@code src} as currently fit. Producer side only.
+     *
+     * @return the number of bytes copied, possibly zero if the ring is full
+     */
+    int write(ByteBuffer src) {
+        int wanted = src.remaining();
+        if (wanted == 0) {
+            return 0;
+        }
+        long tail = (long) LONGS.get(header, TAIL_OFFSET);
+        long free = capacity - (tail - headCache);
+        if (free < wanted) {
+            headCache = (long) LONGS.getAcquire(header, HEAD_OFFSET);
+            free = capacity - (tail - headCache);
+        }
+        int length = (int) Math.min(wanted, free);
+        if (length == 0) {
+            return 0;
+        }
+
+        int offset = (int) (tail & mask);
+        int first = Math.min(length, capacity - offset);
+        int srcPosition = src.position();
+        data.put(offset, src, srcPosition, first);
+        if (length > first) {
+            data.put(0, src, srcPosition + first, length - first);
+        }
+        src.position(srcPosition + length);
+        LONGS.setRelease(header, TAIL_OFFSET, tail + length);
+        return length;
+    }
+
+    /**
+     * Copy as many readable bytes as fit into {@code dst}. Consumer side only.
+     *
+     * @return the number of bytes copied, possibly zero if the ring is empty
+     */
+    int read(ByteBuffer dst) {
+        int wanted = dst.remaining();
+        if (wanted == 0) {
+            return 0;
+        }
+        long head = (long) LONGS.get(header, HEAD_OFFSET);
+        long available = tailCache - head;
+        if (available < wanted) {
+            tailCache = (long) LONGS.getAcquire(header, TAIL_OFFSET);
+            available = tailCache - head;
+        }
+        int length = (int) Math.min(wanted, available);
+        if (length == 0) {
+            return 0;
+        }
+
+        int offset = (int) (head & mask);
+        int first = Math.min(length, capacity - offset);
+        int dstPosition = dst.position();
+        dst.put(dstPosition, data, offset, first);
+        if (length > first) {
+            dst.put(dstPosition + first, data, 0, length - first);
+        }
+        dst.position(dstPosition + length);
+        LONGS.setRelease(header, HEAD_OFFSET, head + length);
+        return length;
+    }
+}
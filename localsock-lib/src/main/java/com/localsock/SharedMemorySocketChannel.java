@@ -0,0 +1,414 @@
+package com.localsock;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One end of a connection between two JVMs on the same host, carried over a memory-mapped file
+ * set up by {@link SharedMemoryTransport}. The file holds a small connection header and one {@link
+ * SharedByteRing} per direction. There is no cross-process signalling, so blocking operations spin
+ * briefly and then poll with growing park intervals, and an {@link InMemorySelector} polls these
+ * channels for readiness rather than being told.
+ */
+public class SharedMemorySocketChannel extends SocketChannel {
+
+    // Connection header, each field on its own cache line
+    static final int STATE_OFFSET = 0;
+    static final int CLIENT_PID_OFFSET = 64;
+    static final int SERVER_PID_OFFSET = 128;
+    static final int CLIENT_CLOSED_OFFSET = 192;
+    static final int SERVER_CLOSED_OFFSET = 256;
+    static final int HEADER_SIZE = 4096;
+
+    static final long STATE_PENDING = 0;
+    static final long STATE_ACCEPTED = 1;
+    static final long STATE_ABANDONED = 2;
+
+    /** Bytes each direction can buffer, the in-JVM default window of SO_SNDBUF plus SO_RCVBUF. */
+    static final int RING_CAPACITY = 2 * InMemorySocketChannel.DEFAULT_BUFFER_SIZE;
+
+    static final int REGION_SIZE = HEADER_SIZE + 2 * SharedByteRing.regionSize(RING_CAPACITY);
+
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final int SPINS = 100;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ByteBuffer region;
+    private final boolean client;
+    private final SharedByteRing incoming;
+    private final SharedByteRing outgoing;
+    private final SocketAddress remoteAddress;
+    // Client side only: the JVM asked to accept, and when to give up waiting for it, zero for never
+    private final long serverPid;
+    private final long connectDeadline;
+    // The request file the server has yet to accept, null once connected
+    private volatile Path request;
+
+    /** The server side of a connection the listener has just accepted. */
+    SharedMemorySocketChannel(SelectorProvider provider, ByteBuffer region) {
+        this(provider, region, false, null, null, 0);
+    }
+
+    /**
+     * The client side of a connection requested through {@code request}, pending until the server
+     * in the JVM with process id {@code serverPid} accepts it.
+     */
+    SharedMemorySocketChannel(
+            SelectorProvider provider, ByteBuffer region, SocketAddress remoteAddress, Path request, long serverPid) {
+        this(provider, region, true, remoteAddress, request, serverPid);
+    }
+
+    private SharedMemorySocketChannel(
+            SelectorProvider provider,
+            ByteBuffer region,
+            boolean client,
+            SocketAddress remoteAddress,
+            Path request,
+            long serverPid) {
+        super(provider);
+        this.region = region;
+        this.client = client;
+        this.remoteAddress = remoteAddress;
+        this.request = request;
+        this.serverPid = serverPid;
+        Duration timeout = InMemoryChannelProvider.getConnectTimeout();
+        this.connectDeadline = request == null || timeout.isZero() ? 0 : System.nanoTime() + timeout.toNanos();
+        int ringSize = SharedByteRing.regionSize(RING_CAPACITY);
+        SharedByteRing clientToServer = new SharedByteRing(region.slice(HEADER_SIZE, ringSize));
+        SharedByteRing serverToClient = new SharedByteRing(region.slice(HEADER_SIZE + ringSize, ringSize));
+        this.incoming = client ? serverToClient : clientToServer;
+        this.outgoing = client ? clientToServer : serverToClient;
+    }
+
+    static long getLong(ByteBuffer region, int offset) {
+        return (long) LONGS.getVolatile(region, offset);
+    }
+
+    static void setLong(ByteBuffer region, int offset, long value) {
+        LONGS.setVolatile(region, offset, value);
+    }
+
+    static boolean compareAndSetLong(ByteBuffer region, int offset, long expected, long value) {
+        return LONGS.compareAndSet(region, offset, expected, value);
+    }
+
+    @Override
+    public SocketChannel bind(SocketAddress local) {
+        return this;
+    }
+
+    @Override
+    public <T> SocketChannel setOption(SocketOption<T> name, T value) {
+        // The rings are sized when the connection is set up
+        return this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getOption(SocketOption<T> name) {
+        if (name == StandardSocketOptions.SO_SNDBUF || name == StandardSocketOptions.SO_RCVBUF) {
+            return (T) Integer.valueOf(RING_CAPACITY / 2);
+        }
+        throw new UnsupportedOperationException("Socket option not supported for shared memory channels: " + name);
+    }
+
+    @Override
+    public Set<SocketOption<?>> supportedOptions() {
+        return Set.of(StandardSocketOptions.SO_SNDBUF, StandardSocketOptions.SO_RCVBUF);
+    }
+
+    @Override
+    public SocketChannel shutdownInput() {
+        return this;
+    }
+
+    @Override
+    public SocketChannel shutdownOutput() {
+        return this;
+    }
+
+    @Override
+    public Socket socket() {
+        throw new UnsupportedOperationException("Legacy Socket not supported");
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isOpen() && request == null;
+    }
+
+    @Override
+    public boolean isConnectionPending() {
+        return isOpen() && request != null;
+    }
+
+    /**
+     * Complete the connect {@link SharedMemoryTransport} has requested. In blocking mode, wait for
+     * the server to accept, for at most {@link InMemoryChannelProvider#getConnectTimeout()} since
+     * the request. In non-blocking mode, return false right away unless the server has already
+     * accepted; {@link #finishConnect()} then completes the connection once {@code OP_CONNECT} is
+     * ready.
+     */
+    @Override
+    public boolean connect(SocketAddress remote) throws IOException {
+        return finishConnect();
+    }
+
+    @Override
+    public boolean finishConnect() throws IOException {
+        synchronized (blockingLock()) {
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+            Path pending = request;
+            if (pending == null) {
+                return true;
+            }
+            for (int attempt = 0; ; attempt++) {
+                if (getLong(region, STATE_OFFSET) != STATE_PENDING) {
+                    request = null; // Accepted, as only we abandon a request
+                    return true;
+                }
+                // Racing the listener: whoever flips the state first decides
+                if (isConnectExpired() && abandonConnect(pending)) {
+                    throw new SocketTimeoutException(
+                            "Connection timeout - server did not accept connection to " + remoteAddress);
+                }
+                if (!SharedMemoryTransport.isAlive(serverPid) && abandonConnect(pending)) {
+                    throw new ConnectException("Server for " + remoteAddress + " exited before accepting");
+                }
+                if (!isBlocking()) {
+                    return false;
+                }
+                try {
+                    idle(attempt);
+                } catch (IOException e) {
+                    if (!abandonConnect(pending)) {
+                        close(); // Accepted just now, so the server sees the end of stream
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private boolean isConnectExpired() {
+        return connectDeadline != 0 && System.nanoTime() - connectDeadline > 0;
+    }
+
+    /** Give up on a pending connect unless the server has accepted it meanwhile. */
+    private boolean abandonConnect(Path pending) throws IOException {
+        if (!compareAndSetLong(region, STATE_OFFSET, STATE_PENDING, STATE_ABANDONED)) {
+            return false;
+        }
+        Files.deleteIfExists(pending);
+        close();
+        return true;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!isOpen()) {
+            throw new IOException("Channel is closed");
+        }
+        if (request != null) {
+            throw new NotYetConnectedException();
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+
+        readLock.lock();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                int bytesRead = incoming.read(dst);
+                if (bytesRead > 0) {
+                    return bytesRead;
+                }
+                if (isPeerClosed(attempt) && incoming.isEmpty()) {
+                    return -1;
+                }
+                if (!isBlocking()) {
+                    return 0;
+                }
+                idle(attempt);
+                if (!isOpen()) {
+                    throw new IOException("Channel closed while waiting for data");
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        Objects.checkFromIndexSize(offset, length, dsts.length);
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (!dsts[i].hasRemaining()) {
+                continue;
+            }
+            // Only the first read may block, later ones take what has already arrived
+            int read = total == 0 ? read(dsts[i]) : readAvailable(dsts[i]);
+            if (read < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += read;
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    private int readAvailable(ByteBuffer dst) {
+        readLock.lock();
+        try {
+            return incoming.read(dst);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!isOpen()) {
+            throw new IOException("Channel is closed");
+        }
+        if (request != null) {
+            throw new NotYetConnectedException();
+        }
+
+        writeLock.lock();
+        try {
+            int bytesToWrite = src.remaining();
+            for (int attempt = 0; src.hasRemaining(); attempt++) {
+                if (isPeerClosed(attempt)) {
+                    throw new IOException("Connection closed by peer");
+                }
+                if (outgoing.write(src) > 0) {
+                    attempt = -1;
+                    continue;
+                }
+                if (!isBlocking()) {
+                    break;
+                }
+                idle(attempt);
+                if (!isOpen()) {
+                    throw new IOException("Channel closed while waiting for buffer space");
+                }
+            }
+            return bytesToWrite - src.remaining();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        Objects.checkFromIndexSize(offset, length, srcs.length);
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += write(srcs[i]);
+            if (srcs[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    protected void implCloseSelectableChannel() {
+        setLong(region, client ? CLIENT_CLOSED_OFFSET : SERVER_CLOSED_OFFSET, 1);
+    }
+
+    @Override
+    protected void implConfigureBlocking(boolean block) {
+        // Both modes are supported
+    }
+
+    /**
+     * Operations a selector would find this channel ready for right now. The other end's process
+     * cannot tell us when that changes, so {@link InMemorySelector} checks on every selection.
+     */
+    int readyOps() {
+        if (request != null) {
+            boolean settled = getLong(region, STATE_OFFSET) != STATE_PENDING
+                    || isConnectExpired()
+                    || !SharedMemoryTransport.isAlive(serverPid);
+            return settled ? SelectionKey.OP_CONNECT : 0;
+        }
+        // Once the peer is gone, reads return the end of stream and writes fail without waiting
+        boolean peerClosed = isPeerClosed(SPINS);
+        int ops = peerClosed || !incoming.isEmpty() ? SelectionKey.OP_READ : 0;
+        if (peerClosed || outgoing.free() > 0) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        return ops;
+    }
+
+    /**
+     * Whether the other end closed its channel or, once we are past spinning and about to park
+     * anyway, whether its process has gone away without closing.
+     */
+    private boolean isPeerClosed(int attempt) {
+        if (getLong(region, client ? SERVER_CLOSED_OFFSET : CLIENT_CLOSED_OFFSET) != 0) {
+            return true;
+        }
+        if (attempt < SPINS) {
+            return false;
+        }
+        long peerPid = getLong(region, client ? SERVER_PID_OFFSET : CLIENT_PID_OFFSET);
+        return !SharedMemoryTransport.isAlive(peerPid);
+    }
+
+    private static void idle(int attempt) throws IOException {
+        if (attempt < SPINS) {
+            Thread.onSpinWait();
+            return;
+        }
+        int doublings = Math.min(attempt - SPINS, 7);
+        LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << doublings, MAX_PARK_NANOS));
+        if (Thread.interrupted()) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting on shared memory connection");
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.localsock;
+
+import static com.localsock.SharedMemorySocketChannel.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Same-host transport between JVMs over memory-mapped files, enabled with the system property
+ * {@value #ENABLED_PROPERTY}. All files live in one directory, {@code /dev/shm/localsock-<user>} by
+ * default or whatever {@value #DIRECTORY_PROPERTY} names:
+ *
+ * <ul>
+ *   <li>{@code ports} is the discovery table, one slot per TCP port holding the pid of the JVM
+ *       whose in-memory server listens there, or zero. Slots of dead processes count as free.
+ *   <li>{@code port-<n>/} receives connection requests for port n. A client creates a file with a
+ *       {@link SharedMemorySocketChannel} header and both rings, then renames it to {@code .conn}
+ *       so the server never sees a half-initialised file. The server's listener maps it, unlinks
+ *       it and flips its state to accepted.
+ * </ul>
+ *
+ * <p>Anyone who can open these files can read and inject connection traffic, so directories are
+ * created accessible to their owner only and files readable and writable by their owner only. The
+ * default directory is refused if it belongs to another user or is open to others.
+ */
+final class SharedMemoryTransport {
+
+    static final String ENABLED_PROPERTY = "localsock.sharedMemory";
+    static final String DIRECTORY_PROPERTY = "localsock.sharedMemory.dir";
+
+    private static final Logger LOG = Logger.getLogger(SharedMemoryTransport.class.getName());
+
+    private static final int PORT_COUNT = 65536;
+    private static final long PID = ProcessHandle.current().pid();
+    private static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_LISTENER_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final Set<OpenOption> CREATE_OR_OPEN =
+            Set.of(StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    private static final Set<OpenOption> CREATE_NEW =
+            Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+    private static final ConcurrentHashMap<Path, SharedMemoryTransport> transports = new ConcurrentHashMap<>();
+    private static final AtomicLong connectionIds = new AtomicLong();
+
+    private final Path directory;
+    private final MappedByteBuffer portTable;
+
+    private SharedMemoryTransport(Path directory) throws IOException {
+        this.directory = directory;
+        PrivateFiles.createDirectory(directory, System.getProperty(DIRECTORY_PROPERTY) == null);
+        try (FileChannel channel = FileChannel.open(directory.resolve("ports"), CREATE_OR_OPEN, PrivateFiles.FILE)) {
+            // Mapping grows the file to full size; the slots of a new file read as zero
+            this.portTable = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) PORT_COUNT * Long.BYTES);
+        }
+    }
+
+    /** The transport for the configured directory, or null if the transport is disabled. */
+    static SharedMemoryTransport get() throws IOException {
+        if (!Boolean.getBoolean(ENABLED_PROPERTY)) {
+            return null;
+        }
+        try {
+            return transports.computeIfAbsent(directory(), dir -> {
+                try {
+                    return new SharedMemoryTransport(dir);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Path directory() {
+        String configured = System.getProperty(DIRECTORY_PROPERTY);
+        if (configured != null) {
+            return Path.of(configured);
+        }
+        Path shm = Path.of("/dev/shm");
+        Path base = Files.isDirectory(shm) ? shm : Path.of(System.getProperty("java.io.tmpdir"));
+        return PrivateFiles.userDirectory(base, "localsock");
+    }
+
+    static boolean isAlive(long pid) {
+        return pid == PID || ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+    /**
+     * Publish {@code server} in the discovery table and start accepting connections from other
+     * JVMs for it. Returns null if another live JVM already listens on the port.
+     */
+    Listener listen(int port, SelectorProvider provider, Consumer<SharedMemorySocketChannel> acceptedConnections)
+            throws IOException {
+        int slot = port * Long.BYTES;
+        while (true) {
+            long owner = getLong(portTable, slot);
+            if (owner == PID) {
+                break;
+            }
+            if (owner != 0 && isAlive(owner)) {
+                return null;
+            }
+            if (compareAndSetLong(portTable, slot, owner, PID)) {
+                break;
+            }
+        }
+
+        Path requests = directory.resolve("port-" + port);
+        Files.createDirectories(requests, PrivateFiles.DIRECTORY);
+        Listener listener = new Listener(port, requests, provider, acceptedConnections);
+        Thread.ofPlatform().daemon().name("localsock-shm-listener-" + port).start(listener);
+        LOG.fine(() -> "Shared memory listener started for port " + port);
+        return listener;
+    }
+
+    /**
+     * Ask the server in another JVM on this host for a connection. The returned channel's connect is
+     * pending until that server accepts; {@link SharedMemorySocketChannel#connect(SocketAddress)} and
+     * {@link SharedMemorySocketChannel#finishConnect()} complete it like for any socket channel.
+     *
+     * @return the channel, or null if no other JVM listens on the port
+     */
+    SharedMemorySocketChannel connect(InetSocketAddress remote, SelectorProvider provider) throws IOException {
+        int port = remote.getPort();
+        long owner = getLong(portTable, port * Long.BYTES);
+        if (owner == 0 || owner == PID || !isAlive(owner)) {
+            return null;
+        }
+
+        Path requests = directory.resolve("port-" + port);
+        Files.createDirectories(requests, PrivateFiles.DIRECTORY);
+        String name = PID + "-" + connectionIds.incrementAndGet();
+        Path pending = requests.resolve(name + ".tmp");
+        Path request = requests.resolve(name + ".conn");
+
+        MappedByteBuffer region;
+        try (FileChannel channel = FileChannel.open(pending, CREATE_NEW, PrivateFiles.FILE)) {
+            region = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+        }
+        setLong(region, CLIENT_PID_OFFSET, PID);
+        setLong(region, STATE_OFFSET, STATE_PENDING);
+        Files.move(pending, request, StandardCopyOption.ATOMIC_MOVE);
+
+        LOG.fine(() -> "Shared memory connection requested to port " + port);
+        return new SharedMemorySocketChannel(provider, region, remote, request, owner);
+    }
+
+    /** Accepts connection requests for one port until closed. */
+    final class Listener implements Runnable, Closeable {
+
+        private final int port;
+        private final Path requests;
+        private final SelectorProvider provider;
+        private final Consumer<SharedMemorySocketChannel> acceptedConnections;
+        private volatile boolean running = true;
+
+        private Listener(
+                int port,
+                Path requests,
+                SelectorProvider provider,
+                Consumer<SharedMemorySocketChannel> acceptedConnections) {
+            this.port = port;
+            this.requests = requests;
+            this.provider = provider;
+            this.acceptedConnections = acceptedConnections;
+        }
+
+        @Override
+        public void run() {
+            long pollNanos = POLL_NANOS;
+            while (running) {
+                boolean found = false;
+                try (DirectoryStream<Path> pending = Files.newDirectoryStream(requests, "*.conn")) {
+                    for (Path request : pending) {
+                        found |= accept(request);
+                    }
+                } catch (IOException e) {
+                    LOG.fine(() -> "Failed to scan " + requests + ": " + e);
+                }
+                // Poll quickly while connections arrive, back off when idle
+                pollNanos = found ? POLL_NANOS : Math.min(pollNanos * 2, MAX_LISTENER_POLL_NANOS);
+                LockSupport.parkNanos(pollNanos);
+            }
+        }
+
+        private boolean accept(Path request) {
+            ByteBuffer region;
+            try (FileChannel channel = FileChannel.open(request, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                region = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+            } catch (NoSuchFileException e) {
+                return false; // Abandoned by the client in the meantime
+            } catch (IOException e) {
+                LOG.fine(() -> "Failed to map " + request + ": " + e);
+                return false;
+            }
+
+            // Both sides have the file mapped from here on, it no longer needs a name
+            try {
+                Files.deleteIfExists(request);
+            } catch (IOException e) {
+                LOG.fine(() -> "Failed to remove " + request + ": " + e);
+            }
+            setLong(region, SERVER_PID_OFFSET, PID);
+            if (!compareAndSetLong(region, STATE_OFFSET, STATE_PENDING, STATE_ACCEPTED)) {
+                return false;
+            }
+            acceptedConnections.accept(new SharedMemorySocketChannel(provider, region));
+            return true;
+        }
+
+        @Override
+        public void close() {
+            running = false;
+            compareAndSetLong(portTable, port * Long.BYTES, PID, 0);
+            LOG.fine(() -> "Shared memory listener stopped for port " + port);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.localsock;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-capacity single-producer/single-consumer byte ring backed by a direct buffer. Bytes are
+ * copied straight from the producer's source buffer into the ring and from the ring into the
+ * consumer's destination, so no objects are created per write.
+ *
+ * <p>Head and tail are monotonically increasing byte counters kept on separate cache lines. Each
+ * side also caches the last value it saw of the other side's counter and only re-reads it when the
+ * cached value suggests the ring is full (producer) or empty (consumer).
+ *
+ * <p>Callers must ensure that at most one thread writes and at most one thread reads at a time.
+ */
+final class SpscByteRing extends SpscByteRingConsumerFields {
+
+    SpscByteRing(int capacity) {
+        this(ByteBuffer.allocateDirect(capacity));
+    }
+
+    /** Create a ring over {@code storage}, whose whole capacity must be a power of two. */
+    SpscByteRing(ByteBuffer storage) {
+        super(storage);
+    }
+
+    /** Number of bytes the ring can hold. */
+    int capacity() {
+        return capacity;
+    }
+
+    /** Number of bytes currently readable. Safe to call from any thread. */
+    int size() {
+        long currentHead = (long) HEAD.getAcquire(this);
+        long currentTail = (long) TAIL.getAcquire(this);
+        return (int) (currentTail - currentHead);
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Number of bytes that can currently be written. Safe to call from any thread. */
+    int remainingCapacity() {
+        return capacity - size();
+    }
+
+    /**
+     * Copy as many bytes from {@code src} as currently fit into the ring. Producer side only.
+     *
+     * @return the number of bytes copied, possibly zero if the ring is full
+     */
+    int write(ByteBuffer src) {
+        return write(src, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Copy up to {@code maxLength} bytes from {@code src}, limited by the free space in the ring.
+     * Producer side only.
+     *
+     * @return the number of bytes copied, possibly zero if the ring is full
+     */
+    int write(ByteBuffer src, int maxLength) {
+        int length = claimWritable(Math.min(src.remaining(), maxLength));
+        if (length == 0) {
+            return 0;
+        }
+
+        long currentTail = tail;
+        copyIn(currentTail, src, length);
+        TAIL.setRelease(this, currentTail + length);
+        return length;
+    }
+
+    /**
+     * Copy up to {@code maxLength} bytes from {@code srcs[offset..offset+length)} in order, limited
+     * by the free space in the ring. The bytes are published together, so the consumer sees either
+     * none or all of them. Producer side only.
+     *
+     * @return the number of bytes copied, possibly zero if the ring is full
+     */
+    long write(ByteBuffer[] srcs, int offset, int length, int maxLength) {
+        long wanted = 0;
+        for (int i = offset; i < offset + length; i++) {
+            wanted += srcs[i].remaining();
+        }
+        int budget = claimWritable((int) Math.min(wanted, maxLength));
+        if (budget == 0) {
+            return 0;
+        }
+
+        long currentTail = tail;
+        long position = currentTail;
+        for (int i = offset; i < offset + length && budget > 0; i++) {
+            int chunk = Math.min(srcs[i].remaining(), budget);
+            copyIn(position, srcs[i], chunk);
+            position += chunk;
+            budget -= chunk;
+        }
+        TAIL.setRelease(this, position);
+        return position - currentTail;
+    }
+
+    /** How many of {@code wanted} bytes fit right now. Producer side only. */
+    private int claimWritable(int wanted) {
+        if (wanted <= 0) {
+            return 0;
+        }
+        long currentTail = tail;
+        long free = capacity - (currentTail - headCache);
+        if (free < wanted) {
+            headCache = (long) HEAD.getAcquire(this);
+            free = capacity - (currentTail - headCache);
+        }
+        return (int) Math.min(wanted, free);
+    }
+
+    private void copyIn(long position, ByteBuffer src, int length) {
+        int offset = (int) (position & mask);
+        int first = Math.min(length, capacity - offset);
+        int srcPosition = src.position();
+        storage.put(offset, src, srcPosition, first);
+        if (length > first) {
+            storage.put(0, src, srcPosition + first, length - first);
+        }
+        src.position(srcPosition + length);
+    }
+
+    /** Total number of bytes ever written. Producer side only. */
+    long writePosition() {
+        return tail;
+    }
+
+    /**
+     * Total number of bytes the producer has published so far. Anything the producer did before
+     * publishing them is visible to the caller afterwards.
+     */
+    long publishedPosition() {
+        return (long) TAIL.getAcquire(this);
+    }
+
+    /** Total number of bytes ever read. Consumer side only. */
+    long readPosition() {
+        return head;
+    }
+
+    /**
+     * Copy as many readable bytes as fit into {@code dst}. Consumer side only.
+     *
+     * @return the number of bytes copied, possibly zero if the ring is empty
+     */
+    int read(ByteBuffer dst) {
+        return read(dst, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Copy up to {@code maxLength} readable bytes into {@code dst}. Consumer side only.
+     *
+     * @return the number of bytes copied, possibly zero if the ring is empty
+     */
+    int read(ByteBuffer dst, int maxLength) {
+        int length = claimReadable(Math.min(dst.remaining(), maxLength));
+        if (length == 0) {
+            return 0;
+        }
+
+        long currentHead = head;
+        copyOut(currentHead, dst, length);
+        HEAD.setRelease(this, currentHead + length);
+        return length;
+    }
+
+    /**
+     * Fill {@code dsts[offset..offset+length)} in order with up to {@code maxLength} readable bytes,
+     * releasing the space to the producer once at the end. Consumer side only.
+     *
+     * @return the number of bytes copied, possibly zero if the ring is empty
+     */
+    long read(ByteBuffer[] dsts, int offset, int length, int maxLength) {
+        long wanted = 0;
+        for (int i = offset; i < offset + length; i++) {
+            wanted += dsts[i].remaining();
+        }
+        int budget = claimReadable((int) Math.min(wanted, maxLength));
+        if (budget == 0) {
+            return 0;
+        }
+
+        long currentHead = head;
+        long position = currentHead;
+        for (int i = offset; i < offset + length && budget > 0; i++) {
+            int chunk = Math.min(dsts[i].remaining(), budget);
+            copyOut(position, dsts[i], chunk);
+            position += chunk;
+            budget -= chunk;
+        }
+        HEAD.setRelease(this, position);
+        return position - currentHead;
+    }
+
+    /**
+     * The big-endian int in the next four readable bytes, without consuming them. Consumer side
+     * only, and at least four bytes must be readable.
+     */
+    int peekInt() {
+        if (claimReadable(Integer.BYTES) < Integer.BYTES) {
+            throw new IllegalStateException("Fewer than four bytes readable");
+        }
+        int offset = (int) (head & mask);
+        if (offset + Integer.BYTES <= capacity) {
+            return storage.getInt(offset);
+        }
+        int value = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            value = (value << 8) | (storage.get((int) ((head + i) & mask)) & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Read-only view of up to {@code maxLength} readable bytes, as many as lie contiguously in the
+     * storage from the head on. Nothing is consumed; the view stays valid until the bytes are, with
+     * {@link #skip(int)}. Consumer side only.
+     */
+    ByteBuffer readableView(int maxLength) {
+        int length = claimReadable(maxLength);
+        int offset = (int) (head & mask);
+        return storage.slice(offset, Math.min(length, capacity - offset)).asReadOnlyBuffer();
+    }
+
+    /** Consume {@code length} readable bytes without copying them. Consumer side only. */
+    void skip(int length) {
+        if (claimReadable(length) < length) {
+            throw new IllegalStateException("Fewer than " + length + " bytes readable");
+        }
+        HEAD.setRelease(this, head + length);
+    }
+
+    /** How many of {@code wanted} bytes are readable right now. Consumer side only. */
+    private int claimReadable(int wanted) {
+        if (wanted <= 0) {
+            return 0;
+        }
+        long currentHead = head;
+        long available = tailCache - currentHead;
+        if (available < wanted) {
+            tailCache = (long) TAIL.getAcquire(this);
+            available = tailCache - currentHead;
+        }
+        return (int) Math.min(wanted, available);
+    }
+
+    private void copyOut(long position, ByteBuffer dst, int length) {
+        int offset = (int) (position & mask);
+        int first = Math.min(length, capacity - offset);
+        int dstPosition = dst.position();
+        dst.put(dstPosition, storage, offset, first);
+        if (length > first) {
+            dst.put(dstPosition + first, storage, 0, length - first);
+        }
+        dst.position(dstPosition + length);
+    }
+}
+
+/** Immutable ring state shared by both sides. */
+abstract class SpscByteRingFields {
+
+    final ByteBuffer storage;
+    final int capacity;
+    final long mask;
+
+    SpscByteRingFields(ByteBuffer storage) {
+        int capacity = storage.capacity();
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a positive power of two: " + capacity);
+        }
+        this.storage = storage;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+    }
+}
+
+abstract class SpscByteRingPad0 extends SpscByteRingFields {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+
+    SpscByteRingPad0(ByteBuffer storage) {
+        super(storage);
+    }
+}
+
+/** Producer-owned state: the tail counter and the producer's view of the head. */
+abstract class SpscByteRingProducerFields extends SpscByteRingPad0 {
+
+    static final VarHandle TAIL;
+
+    static {
+        try {
+            TAIL = MethodHandles.lookup().findVarHandle(SpscByteRingProducerFields.class, "tail", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    volatile long tail;
+    long headCache;
+
+    SpscByteRingProducerFields(ByteBuffer storage) {
+        super(storage);
+    }
+}
+
+abstract class SpscByteRingPad1 extends SpscByteRingProducerFields {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+
+    SpscByteRingPad1(ByteBuffer storage) {
+        super(storage);
+    }
+}
+
+/** Consumer-owned state: the head counter and the consumer's view of the tail. */
+abstract class SpscByteRingConsumerFields extends SpscByteRingPad1 {
+
+    static final VarHandle HEAD;
+
+    static {
+        try {
+            HEAD = MethodHandles.lookup().findVarHandle(SpscByteRingConsumerFields.class, "head", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    volatile long head;
+    long tailCache;
+
+    // Trailing padding keeps the consumer fields off whatever object follows in the heap
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+
+    SpscByteRingConsumerFields(ByteBuffer storage) {
+        super(storage);
+    }
+}
@@ -92,7 +92,8 @@ public class TransparentSocketChannel extends SocketChannel {
     @Override
     public boolean connect(SocketAddress remote) throws IOException {
         ensureDelegate(remote);
-        boolean result = delegate.connect(remote);
+        // Channels over the cross-process transports come connected already
+        boolean result = delegate.isConnected() || delegate.connect(remote);
         if (result) {
             connected = true;
         }
@@ -148,6 +149,11 @@ public class TransparentSocketChannel extends SocketChannel {
         return delegate.write(srcs, offset, length);
     }
 
+    /** The channel this one forwards to, or null before it is connected or configured. */
+    SocketChannel delegate() {
+        return delegate;
+    }
+
     @Override
     public SocketAddress getLocalAddress() throws IOException {
         return delegate != null ? delegate.getLocalAddress() : null;
@@ -178,11 +184,9 @@ public class TransparentSocketChannel extends SocketChannel {
 
         // Choose implementation based on address
         if (remote != null && InMemorySocketRegistry.isLocalConnection(remote)) {
-            try {
-                delegate = InMemorySocketRegistry.createClientChannel(remote);
-            } catch (Exception e) {
-                delegate = systemProvider.openSocketChannel();
-            }
+            // Without a local listener the connect goes to the loopback interface
+            SocketChannel local = InMemorySocketRegistry.open(remote);
+            delegate = local != null ? local : systemProvider.openSocketChannel();
         } else {
             delegate = systemProvider.openSocketChannel();
         }
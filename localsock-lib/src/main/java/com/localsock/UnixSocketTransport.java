@@ -0,0 +1,215 @@
+package com.localsock;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Fallback transport between processes on the same host over Unix domain sockets, enabled with
+ * the system property {@value #ENABLED_PROPERTY}. An in-memory server bound to TCP port n also
+ * listens on {@code <dir>/<n>.sock}, where dir is {@value #DIRECTORY_PROPERTY} or {@code
+ * localsock-uds-<user>} in the temp directory, and loopback clients that find no server in their
+ * own JVM connect there instead of going through TCP.
+ *
+ * <p>A listener holds a lock on {@code <dir>/<n>.lock} for as long as it listens, which tells a
+ * live listener from a socket file left behind by a process that died. Whoever can replace the
+ * socket files can intercept the connections, so the default directory is created accessible to
+ * its owner only and refused if it belongs to another user or is open to others.
+ *
+ * <p>The sockets are opened through the JDK's own selector provider. When {@link
+ * InMemorySelectorProvider} is installed as the JVM-wide provider through the service loader it
+ * cannot reach the JDK provider, and this transport stays unavailable.
+ */
+final class UnixSocketTransport {
+
+    static final String ENABLED_PROPERTY = "localsock.unixSocket";
+    static final String DIRECTORY_PROPERTY = "localsock.unixSocket.dir";
+
+    private static final Logger LOG = Logger.getLogger(UnixSocketTransport.class.getName());
+
+    private static final Set<OpenOption> LOCK_OPTIONS = Set.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+    private UnixSocketTransport() {}
+
+    /** The JDK's selector provider, or null if it cannot be reached or the transport is disabled. */
+    private static SelectorProvider platformProvider() {
+        if (!Boolean.getBoolean(ENABLED_PROPERTY)) {
+            return null;
+        }
+        SelectorProvider provider = SelectorProvider.provider();
+        if (provider instanceof InMemorySelectorProvider inMemory) {
+            provider = inMemory.systemProvider();
+        }
+        if (provider == null) {
+            LOG.fine(() -> "Unix domain socket transport unavailable without the JDK selector provider");
+        }
+        return provider;
+    }
+
+    private static Path directory() {
+        String configured = System.getProperty(DIRECTORY_PROPERTY);
+        return configured != null
+                ? Path.of(configured)
+                : PrivateFiles.userDirectory(Path.of(System.getProperty("java.io.tmpdir")), "localsock-uds");
+    }
+
+    static UnixDomainSocketAddress address(int port) {
+        return UnixDomainSocketAddress.of(directory().resolve(port + ".sock"));
+    }
+
+    /**
+     * Listen on the socket path for {@code port} and hand every accepted channel to {@code
+     * acceptedConnections}. Returns null if the transport is unavailable or a live listener, in
+     * this process or another, already listens on that path.
+     */
+    static Listener listen(int port, Consumer<SocketChannel> acceptedConnections) throws IOException {
+        SelectorProvider provider = platformProvider();
+        if (provider == null) {
+            return null;
+        }
+        Path directory = directory();
+        PrivateFiles.createDirectory(directory, System.getProperty(DIRECTORY_PROPERTY) == null);
+        FileChannel lock = lock(directory.resolve(port + ".lock"));
+        if (lock == null) {
+            return null;
+        }
+
+        UnixDomainSocketAddress address = address(port);
+        ServerSocketChannel server = null;
+        try {
+            // Holding the lock, so a socket file here was left behind by a process that died
+            Files.deleteIfExists(address.getPath());
+            server = provider.openServerSocketChannel(StandardProtocolFamily.UNIX);
+            server.bind(address);
+        } catch (IOException e) {
+            closeQuietly(server);
+            closeQuietly(lock);
+            LOG.fine(() -> "Failed to listen on " + address + ": " + e);
+            return null;
+        }
+        Listener listener = new Listener(server, address, lock, acceptedConnections);
+        Thread.ofPlatform().daemon().name("localsock-uds-listener-" + port).start(listener);
+        LOG.fine(() -> "Unix domain socket listener started on " + address);
+        return listener;
+    }
+
+    /**
+     * Connect to the socket path for {@code port}.
+     *
+     * @return the connected channel, or null if the transport is unavailable or nobody listens
+     */
+    static SocketChannel connect(int port) {
+        SelectorProvider provider = platformProvider();
+        if (provider == null) {
+            return null;
+        }
+        UnixDomainSocketAddress address = address(port);
+        if (!Files.exists(address.getPath())) {
+            return null;
+        }
+        SocketChannel channel = null;
+        try {
+            if (System.getProperty(DIRECTORY_PROPERTY) == null) {
+                PrivateFiles.checkPrivate(address.getPath().getParent());
+            }
+            channel = provider.openSocketChannel(StandardProtocolFamily.UNIX);
+            channel.connect(address);
+            LOG.fine(() -> "Connected over Unix domain socket " + address);
+            return channel;
+        } catch (IOException e) {
+            LOG.fine(() -> "Failed to connect to " + address + ": " + e);
+            closeQuietly(channel);
+            return null;
+        }
+    }
+
+    /**
+     * Lock {@code path} for as long as the returned channel stays open, or return null if another
+     * listener holds the lock. The operating system drops the lock when its process dies, and
+     * unlike a probing connect, checking it leaves the live listener alone.
+     */
+    private static FileChannel lock(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, LOCK_OPTIONS, PrivateFiles.FILE);
+        boolean locked = false;
+        try {
+            locked = channel.tryLock() != null;
+        } catch (OverlappingFileLockException e) {
+            // Held by another listener in this process
+        } finally {
+            if (!locked) {
+                channel.close();
+            }
+        }
+        return locked ? channel : null;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing useful to do
+            }
+        }
+    }
+
+    /** Accepts connections on one socket path until closed. */
+    static final class Listener implements Runnable, Closeable {
+
+        private final ServerSocketChannel server;
+        private final UnixDomainSocketAddress address;
+        private final FileChannel lock;
+        private final Consumer<SocketChannel> acceptedConnections;
+
+        private Listener(
+                ServerSocketChannel server,
+                UnixDomainSocketAddress address,
+                FileChannel lock,
+                Consumer<SocketChannel> acceptedConnections) {
+            this.server = server;
+            this.address = address;
+            this.lock = lock;
+            this.acceptedConnections = acceptedConnections;
+        }
+
+        @Override
+        public void run() {
+            while (server.isOpen()) {
+                try {
+                    acceptedConnections.accept(server.accept());
+                } catch (IOException e) {
+                    if (server.isOpen()) {
+                        LOG.fine(() -> "Failed to accept on " + address + ": " + e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(server);
+            try {
+                Files.deleteIfExists(address.getPath());
+            } catch (IOException e) {
+                LOG.fine(() -> "Failed to remove " + address + ": " + e);
+            }
+            // Only now may the next listener take the path over. The lock file stays, since
+            // removing it could race a listener that has just opened it.
+            closeQuietly(lock);
+            LOG.fine(() -> "Unix domain socket listener stopped on " + address);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.localsock;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The waiting primitives a {@link WaitStrategy} can use, bound to one blocking operation of one
+ * channel (reads of a socket channel, accepts of a server channel). The waiting thread holds the
+ * operation's lock when it calls into a strategy; every primitive returns with the lock held again.
+ *
+ * <p>Signalling only takes the lock while some thread actually waits on the condition, so a
+ * spinning waiter never makes the signalling side block on the lock it holds.
+ */
+public final class WaitSignal {
+
+    // Safety net for parked waiters, a signal normally unparks them long before this
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final VarHandle PARKED;
+    private static final VarHandle CONDITION_WAITERS;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            PARKED = lookup.findVarHandle(WaitSignal.class, "parked", Thread.class);
+            CONDITION_WAITERS = lookup.findVarHandle(WaitSignal.class, "conditionWaiters", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final ReentrantLock lock;
+    private final Condition condition;
+    private final BooleanSupplier ready;
+    private volatile Thread parked;
+    private volatile int conditionWaiters;
+
+    /**
+     * @param lock the lock the waiting thread holds
+     * @param ready whether the waiting thread has something to do, checked again right before it
+     *     parks so that a signal raised in between is not lost
+     */
+    WaitSignal(ReentrantLock lock, BooleanSupplier ready) {
+        this.lock = lock;
+        this.condition = lock.newCondition();
+        this.ready = ready;
+    }
+
+    /** Spin for one iteration. */
+    public void spin() {
+        Thread.onSpinWait();
+    }
+
+    /** Give up the processor once. */
+    public void yieldThread() {
+        Thread.yield();
+    }
+
+    /**
+     * Park until signalled. Only one thread parks at a time; any other waiter falls back to {@link
+     * #await()}.
+     */
+    public void park() throws InterruptedException {
+        Thread current = Thread.currentThread();
+        if (!PARKED.compareAndSet(this, null, current)) {
+            await();
+            return;
+        }
+        lock.unlock();
+        try {
+            if (!ready.getAsBoolean()) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+        } finally {
+            parked = null;
+            lock.lock();
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /** Wait on the lock's condition until signalled. */
+    public void await() throws InterruptedException {
+        await(ready);
+    }
+
+    /** Wait on the lock's condition until signalled, re-checking {@code ready} instead of the default. */
+    void await(BooleanSupplier ready) throws InterruptedException {
+        CONDITION_WAITERS.getAndAdd(this, 1);
+        try {
+            if (!ready.getAsBoolean()) {
+                condition.await();
+            }
+        } finally {
+            CONDITION_WAITERS.getAndAdd(this, -1);
+        }
+    }
+
+    /** Wake whoever is waiting, however they chose to wait. */
+    void signal() {
+        // Pairs with the atomic updates in park() and await(): either the waiter sees our state
+        // change when it re-checks, or we see the waiter here
+        VarHandle.fullFence();
+        if (conditionWaiters > 0) {
+            lock.lock();
+            try {
+                condition.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        Thread thread = parked;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
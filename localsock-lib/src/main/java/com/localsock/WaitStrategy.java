@@ -0,0 +1,75 @@
+package com.localsock;
+
+/**
+ * How a blocking {@link InMemorySocketChannel#read} or {@link InMemoryServerSocketChannel#accept}
+ * waits when there is nothing to do yet. Spinning keeps latency to a minimum at the cost of a busy
+ * core, parking and condition waits give the core back at the cost of a wakeup per message.
+ *
+ * <p>Strategies are set per channel, or for every channel without its own strategy through {@link
+ * InMemoryChannelProvider#setDefaultWaitStrategy(WaitStrategy)}.
+ */
+@FunctionalInterface
+public interface WaitStrategy {
+
+    /** Spin iterations before {@link #spinThenYield()} and {@link #spinThenPark()} back off. */
+    int DEFAULT_SPINS = 1_000;
+
+    /** Busy-spin without ever giving up the core. */
+    WaitStrategy BUSY_SPIN = (attempt, signal) -> {
+        checkInterrupted();
+        signal.spin();
+    };
+
+    /** Wait on a condition variable, which is what channels do unless configured otherwise. */
+    WaitStrategy CONDITION = (attempt, signal) -> signal.await();
+
+    /**
+     * Wait once. Called repeatedly from the blocking loop, which re-checks for work after every
+     * call, so returning early is always safe.
+     *
+     * @param attempt how often the caller has already waited during the current operation
+     * @param signal the primitives to wait with
+     */
+    void idle(int attempt, WaitSignal signal) throws InterruptedException;
+
+    /** Spin for {@link #DEFAULT_SPINS} iterations, then yield. */
+    static WaitStrategy spinThenYield() {
+        return spinThenYield(DEFAULT_SPINS);
+    }
+
+    /** Spin for {@code spins} iterations, then yield the processor between checks. */
+    static WaitStrategy spinThenYield(int spins) {
+        return (attempt, signal) -> {
+            checkInterrupted();
+            if (attempt < spins) {
+                signal.spin();
+            } else {
+                signal.yieldThread();
+            }
+        };
+    }
+
+    /** Spin for {@link #DEFAULT_SPINS} iterations, then park. */
+    static WaitStrategy spinThenPark() {
+        return spinThenPark(DEFAULT_SPINS);
+    }
+
+    /** Spin for {@code spins} iterations, then park until signalled. */
+    static WaitStrategy spinThenPark(int spins) {
+        return (attempt, signal) -> {
+            if (attempt < spins) {
+                checkInterrupted();
+                signal.spin();
+            } else {
+                signal.park();
+            }
+        };
+    }
+
+    /** Spinning and yielding ignore interrupts, so strategies check before each round instead. */
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.localsock;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Off-heap memory behind one pooled ring slab. This is the Java 22+ variant: each pooled slab has
+ * its own shared Arena and is aligned to a cache line. A freed slab is kept for the next allocation
+ * of its size, up to a bounded number per size, and only slabs beyond that have their Arena closed.
+ * Closing a shared Arena waits for a handshake with every thread, so that cost is only paid once
+ * churn outgrows both {@link DirectBufferPool} and the spares kept here. Oversize slabs come from an
+ * automatic Arena and are reclaimed by the GC, like on Java 21.
+ */
+final class RingMemory {
+
+    private static final long ALIGNMENT = 64;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(DirectBufferPool.MIN_SLAB_SIZE);
+    private static final int MAX_SHIFT = Integer.numberOfTrailingZeros(DirectBufferPool.MAX_SLAB_SIZE);
+
+    // Upper bound for freed memory kept per size instead of being released
+    private static final long SPARE_BYTES_PER_CLASS = 16L * 1024 * 1024;
+
+    // Freed slabs per size, reused before a new Arena is opened
+    private static final ArrayBlockingQueue<RingMemory>[] SPARE = newSpareLists(MAX_SHIFT - MIN_SHIFT + 1);
+
+    private final Arena arena;
+    private final int sizeClass;
+    private final ByteBuffer buffer;
+
+    private RingMemory(Arena arena, MemorySegment segment, int sizeClass) {
+        this.arena = arena;
+        this.sizeClass = sizeClass;
+        this.buffer = segment.asByteBuffer();
+    }
+
+    static RingMemory allocate(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass < 0) {
+            return new RingMemory(null, Arena.ofAuto().allocate(capacity, ALIGNMENT), -1);
+        }
+        RingMemory spare = SPARE[sizeClass].poll();
+        if (spare != null) {
+            spare.buffer.clear();
+            return spare;
+        }
+        Arena arena = Arena.ofShared();
+        return new RingMemory(arena, arena.allocate(capacity, ALIGNMENT), sizeClass);
+    }
+
+    /** The memory as a buffer spanning all of it. */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /** Give the memory back. The buffer must not be used afterwards. */
+    void free() {
+        if (sizeClass >= 0 && !SPARE[sizeClass].offer(this)) {
+            arena.close();
+        }
+    }
+
+    /** Index of the pooled size {@code capacity} is, or -1 if it is none. */
+    private static int sizeClass(int capacity) {
+        int shift = Integer.numberOfTrailingZeros(capacity);
+        boolean pooled = Integer.bitCount(capacity) == 1 && shift >= MIN_SHIFT && shift <= MAX_SHIFT;
+        return pooled ? shift - MIN_SHIFT : -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayBlockingQueue<RingMemory>[] newSpareLists(int count) {
+        ArrayBlockingQueue<RingMemory>[] lists = new ArrayBlockingQueue[count];
+        for (int i = 0; i < count; i++) {
+            long slabSize = (long) DirectBufferPool.MIN_SLAB_SIZE << i;
+            lists[i] = new ArrayBlockingQueue<>((int) Math.max(2, SPARE_BYTES_PER_CLASS / slabSize));
+        }
+        return lists;
+    }
+}
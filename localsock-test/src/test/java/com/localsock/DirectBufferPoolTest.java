@@ -0,0 +1,48 @@
+package com.localsock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/** Tests for the shared slab pool used for connection rings. */
+class DirectBufferPoolTest {
+
+    @Test
+    void testReleasedSlabIsLeasedAgain() {
+        DirectBufferPool pool = new DirectBufferPool();
+        Object first = new Object();
+        Object second = new Object();
+
+        DirectBufferPool.Slab slab = pool.lease(5000, first);
+        assertEquals(8192, slab.buffer.capacity(), "Requests are rounded up to their size class");
+        assertEquals(1, pool.getMissCount());
+
+        pool.release(slab, first);
+        assertSame(slab, pool.lease(6000, second));
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getLeasedCount());
+    }
+
+    @Test
+    void testReleaseRequiresCurrentOwner() {
+        DirectBufferPool pool = new DirectBufferPool();
+        Object owner = new Object();
+
+        DirectBufferPool.Slab slab = pool.lease(4096, owner);
+        assertThrows(IllegalStateException.class, () -> pool.release(slab, new Object()));
+
+        pool.release(slab, owner);
+        assertThrows(IllegalStateException.class, () -> pool.release(slab, owner), "Double release must fail");
+    }
+
+    @Test
+    void testOversizedRequestsAreNotPooled() {
+        DirectBufferPool pool = new DirectBufferPool();
+        Object owner = new Object();
+
+        DirectBufferPool.Slab slab = pool.lease(DirectBufferPool.MAX_SLAB_SIZE + 1, owner);
+        pool.release(slab, owner);
+        assertNotSame(slab, pool.lease(DirectBufferPool.MAX_SLAB_SIZE + 1, owner));
+        assertEquals(2, pool.getMissCount());
+    }
+}
@@ -0,0 +1,124 @@
+package com.localsock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/**
+ * One selector serving an in-memory and a TCP peer. Runs in a separate JVM with the JDK's selector
+ * provider forced by system property, since TCP channels cannot be opened when this library's
+ * provider is installed through the service loader.
+ */
+@EnabledOnOs(OS.LINUX)
+class HybridSelectorTest {
+
+    private static final int PORT = 17143;
+
+    @Test
+    @Timeout(30)
+    void testOneLoopServesBothKindsOfPeer() throws Exception {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Process reactor = new ProcessBuilder(List.of(
+                        java,
+                        "-cp",
+                        System.getProperty("java.class.path"),
+                        "-Djava.nio.channels.spi.SelectorProvider=sun.nio.ch.EPollSelectorProvider",
+                        Reactor.class.getName(),
+                        String.valueOf(PORT)))
+                .redirectErrorStream(true)
+                .start();
+        try {
+            BufferedReader output = new BufferedReader(new InputStreamReader(reactor.getInputStream()));
+            assertEquals("OK", output.readLine());
+            assertTrue(reactor.waitFor(10, TimeUnit.SECONDS));
+            assertEquals(0, reactor.exitValue());
+        } finally {
+            reactor.destroyForcibly();
+        }
+    }
+
+    /** Echoes one message each from an in-memory and a TCP client on a single loop, prints OK. */
+    public static class Reactor {
+        public static void main(String[] args) throws Exception {
+            InetSocketAddress inMemoryAddress = new InetSocketAddress("localhost", Integer.parseInt(args[0]));
+            try (Selector selector = InMemoryChannelProvider.openSelector();
+                    ServerSocketChannel inMemoryServer = InMemoryChannelProvider.openInMemoryServerSocketChannel();
+                    ServerSocketChannel tcpServer = ServerSocketChannel.open()) {
+                inMemoryServer.bind(inMemoryAddress);
+                tcpServer.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                for (ServerSocketChannel server : List.of(inMemoryServer, tcpServer)) {
+                    server.configureBlocking(false);
+                    server.register(selector, SelectionKey.OP_ACCEPT);
+                }
+
+                CompletableFuture<Void> tcpClient = CompletableFuture.runAsync(() -> {
+                    try (SocketChannel channel = SocketChannel.open(tcpServer.getLocalAddress())) {
+                        echo(channel, "over tcp");
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                CompletableFuture<Void> inMemoryClient = CompletableFuture.runAsync(() -> {
+                    try (SocketChannel channel = InMemoryChannelProvider.openInMemorySocketChannel(inMemoryAddress)) {
+                        echo(channel, "in memory");
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+
+                int echoed = 0;
+                while (echoed < 2) {
+                    selector.select();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        if (key.isAcceptable()) {
+                            SocketChannel accepted = ((ServerSocketChannel) key.channel()).accept();
+                            if (accepted != null) {
+                                accepted.configureBlocking(false);
+                                accepted.register(selector, SelectionKey.OP_READ);
+                            }
+                        } else if (key.isReadable()) {
+                            SocketChannel channel = (SocketChannel) key.channel();
+                            ByteBuffer buffer = ByteBuffer.allocate(64);
+                            if (channel.read(buffer) > 0) {
+                                channel.write(buffer.flip());
+                                echoed++;
+                            }
+                            key.cancel();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+                tcpClient.get(5, TimeUnit.SECONDS);
+                inMemoryClient.get(5, TimeUnit.SECONDS);
+            }
+            System.out.println("OK");
+        }
+
+        private static void echo(SocketChannel channel, String message) throws IOException {
+            channel.write(ByteBuffer.wrap(message.getBytes()));
+            ByteBuffer reply = ByteBuffer.allocate(message.length());
+            while (reply.hasRemaining() && channel.read(reply) >= 0) {
+                // keep reading
+            }
+            if (!new String(reply.array()).equals(message)) {
+                throw new AssertionError("Unexpected echo: " + new String(reply.array()));
+            }
+        }
+    }
+}
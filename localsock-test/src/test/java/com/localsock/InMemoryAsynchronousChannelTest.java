@@ -0,0 +1,144 @@
+package com.localsock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/** Tests for the in-memory asynchronous channels. */
+class InMemoryAsynchronousChannelTest {
+
+    @Test
+    @Timeout(10)
+    void testPendingReadCompletesOnWritersThread() throws Exception {
+        try (InMemoryAsynchronousServerSocketChannel server =
+                InMemoryChannelProvider.openAsynchronousServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17161);
+            server.bind(address);
+            CompletableFuture<AsynchronousSocketChannel> accepted = new CompletableFuture<>();
+            server.accept(null, handler(accepted));
+
+            try (InMemoryAsynchronousSocketChannel client = InMemoryChannelProvider.openAsynchronousSocketChannel()) {
+                CompletableFuture<Void> connected = new CompletableFuture<>();
+                client.connect(address, null, handler(connected));
+                connected.get(5, TimeUnit.SECONDS);
+
+                try (AsynchronousSocketChannel peer = accepted.get(5, TimeUnit.SECONDS)) {
+                    ByteBuffer buffer = ByteBuffer.allocate(16);
+                    CompletableFuture<Thread> completedOn = new CompletableFuture<>();
+                    peer.read(buffer, null, new CompletionHandler<Integer, Void>() {
+                        @Override
+                        public void completed(Integer result, Void attachment) {
+                            completedOn.complete(Thread.currentThread());
+                        }
+
+                        @Override
+                        public void failed(Throwable exc, Void attachment) {
+                            completedOn.completeExceptionally(exc);
+                        }
+                    });
+                    assertFalse(completedOn.isDone(), "Nothing to read yet");
+                    assertThrows(ReadPendingException.class, () -> peer.read(ByteBuffer.allocate(1)));
+
+                    assertEquals(
+                            5, client.write(ByteBuffer.wrap("hello".getBytes())).get(5, TimeUnit.SECONDS));
+                    assertSame(Thread.currentThread(), completedOn.getNow(null), "Completed inline on the writer");
+                    assertEquals("hello", new String(buffer.array(), 0, buffer.position()));
+
+                    client.close();
+                    assertEquals(-1, peer.read(buffer.clear()).get(5, TimeUnit.SECONDS));
+                }
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testTimeoutAndCloseFailPendingRead() throws Exception {
+        try (InMemoryAsynchronousServerSocketChannel server =
+                InMemoryChannelProvider.openAsynchronousServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17162);
+            server.bind(address);
+            Future<AsynchronousSocketChannel> accepted = server.accept();
+
+            try (InMemoryAsynchronousSocketChannel client = InMemoryChannelProvider.openAsynchronousSocketChannel()) {
+                client.connect(address).get(5, TimeUnit.SECONDS);
+                try (AsynchronousSocketChannel peer = accepted.get(5, TimeUnit.SECONDS)) {
+                    CompletableFuture<Integer> timedOut = new CompletableFuture<>();
+                    client.read(ByteBuffer.allocate(1), 50, TimeUnit.MILLISECONDS, null, handler(timedOut));
+                    ExecutionException timeout =
+                            assertThrows(ExecutionException.class, () -> timedOut.get(5, TimeUnit.SECONDS));
+                    assertInstanceOf(InterruptedByTimeoutException.class, timeout.getCause());
+
+                    Future<Integer> read = client.read(ByteBuffer.allocate(1));
+                    client.close();
+                    ExecutionException closed =
+                            assertThrows(ExecutionException.class, () -> read.get(5, TimeUnit.SECONDS));
+                    assertInstanceOf(AsynchronousCloseException.class, closed.getCause());
+                }
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testPendingConnectLeavesExecutorFree() throws Exception {
+        InMemoryAsynchronousChannelProvider provider = new InMemoryAsynchronousChannelProvider();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AsynchronousChannelGroup group = provider.openAsynchronousChannelGroup(executor, 0);
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17163);
+            server.bind(address);
+            try (InMemoryAsynchronousSocketChannel client = provider.openAsynchronousSocketChannel(group)) {
+                CompletableFuture<Void> connected = new CompletableFuture<>();
+                client.connect(address, null, handler(connected));
+                executor.submit(() -> null).get(5, TimeUnit.SECONDS);
+                assertFalse(connected.isDone(), "Still waiting for the server, without holding a thread");
+
+                try (SocketChannel peer = server.accept()) {
+                    connected.get(5, TimeUnit.SECONDS);
+                    assertEquals(
+                            5, client.write(ByteBuffer.wrap("hello".getBytes())).get(5, TimeUnit.SECONDS));
+                    assertEquals(5, peer.read(ByteBuffer.allocate(16)));
+                }
+            }
+
+            InMemoryAsynchronousSocketChannel client = provider.openAsynchronousSocketChannel(group);
+            Future<Void> connect = client.connect(address);
+            client.close();
+            ExecutionException closed = assertThrows(ExecutionException.class, () -> connect.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(AsynchronousCloseException.class, closed.getCause());
+        } finally {
+            group.shutdownNow();
+        }
+    }
+
+    private static <V> CompletionHandler<V, Void> handler(CompletableFuture<? super V> future) {
+        return new CompletionHandler<>() {
+            @Override
+            public void completed(V result, Void attachment) {
+                future.complete(result);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                future.completeExceptionally(exc);
+            }
+        };
+    }
+}
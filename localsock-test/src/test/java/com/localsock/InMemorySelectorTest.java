@@ -0,0 +1,201 @@
+package com.localsock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/** Tests for readiness selection over in-memory channels. */
+class InMemorySelectorTest {
+
+    @Test
+    @Timeout(10)
+    void testAcceptReadAndWriteReadiness() throws Exception {
+        try (Selector selector = InMemoryChannelProvider.openSelector();
+                InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17141);
+            server.bind(address);
+            server.configureBlocking(false);
+            SelectionKey acceptKey = server.register(selector, SelectionKey.OP_ACCEPT);
+            assertEquals(0, selector.selectNow(), "Nobody is connecting yet");
+
+            CompletableFuture<InMemorySocketChannel> connecting = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return InMemoryChannelProvider.openInMemorySocketChannel(address);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            assertEquals(1, selector.select(5000));
+            assertTrue(selector.selectedKeys().contains(acceptKey));
+            assertTrue(acceptKey.isAcceptable());
+            selector.selectedKeys().clear();
+
+            SocketChannel accepted = server.accept();
+            accepted.configureBlocking(false);
+            SelectionKey readKey = accepted.register(selector, SelectionKey.OP_READ, "conn");
+            try (InMemorySocketChannel client = connecting.get(5, TimeUnit.SECONDS)) {
+                client.write(ByteBuffer.wrap("ping!".getBytes()));
+                assertEquals(1, selector.select(5000));
+                assertSame(readKey, selector.selectedKeys().iterator().next());
+                assertEquals("conn", readKey.attachment());
+                assertEquals(SelectionKey.OP_READ, readKey.readyOps());
+
+                // Still readable after a partial read, without any new event
+                selector.selectedKeys().clear();
+                assertEquals(2, accepted.read(ByteBuffer.allocate(2)));
+                assertEquals(1, selector.selectNow());
+                selector.selectedKeys().clear();
+                assertEquals(3, accepted.read(ByteBuffer.allocate(8)));
+                assertEquals(0, selector.selectNow(), "Drained, nothing to report");
+
+                readKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                assertEquals(1, selector.selectNow());
+                assertEquals(SelectionKey.OP_WRITE, readKey.readyOps());
+
+                readKey.cancel();
+                selector.selectNow();
+                assertFalse(selector.keys().contains(readKey));
+                assertNull(accepted.keyFor(selector));
+            } finally {
+                accepted.close();
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testSelectWithActionAndIteratorRemoval() throws Exception {
+        try (Selector selector = InMemoryChannelProvider.openSelector();
+                InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17142);
+            server.bind(address);
+            List<InMemorySocketChannel> clients = new ArrayList<>();
+            List<SocketChannel> peers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> accept(server));
+                clients.add(InMemoryChannelProvider.openInMemorySocketChannel(address));
+                SocketChannel peer = accepted.get(5, TimeUnit.SECONDS);
+                peer.configureBlocking(false);
+                peer.register(selector, SelectionKey.OP_READ, i);
+                peers.add(peer);
+            }
+            try {
+                clients.get(0).write(ByteBuffer.wrap(new byte[1]));
+                clients.get(2).write(ByteBuffer.wrap(new byte[1]));
+
+                List<Object> selected = new ArrayList<>();
+                assertEquals(2, selector.select(key -> selected.add(key.attachment()), 5000));
+                assertEquals(List.of(0, 2), selected.stream().sorted().toList());
+                assertTrue(selector.selectedKeys().isEmpty(), "Actions bypass the selected-key set");
+
+                assertEquals(2, selector.selectNow());
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                keys.next();
+                keys.remove();
+                assertEquals(1, selector.selectedKeys().size());
+                keys.next();
+                keys.remove();
+                assertFalse(keys.hasNext());
+                assertTrue(selector.selectedKeys().isEmpty());
+
+                assertEquals(2, selector.selectNow());
+                Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                Iterator<SelectionKey> outer = selectedKeys.iterator();
+                assertSame(keys, outer, "A finished iterator is handed out again");
+                int pairs = 0;
+                while (outer.hasNext()) {
+                    outer.next();
+                    for (SelectionKey ignored : selectedKeys) {
+                        pairs++;
+                    }
+                    outer.remove();
+                }
+                assertEquals(3, pairs, "Nested loops get an iterator of their own");
+                assertTrue(selectedKeys.isEmpty());
+            } finally {
+                for (int i = 0; i < clients.size(); i++) {
+                    clients.get(i).close();
+                    peers.get(i).close();
+                }
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testWakeup() throws Exception {
+        try (Selector selector = InMemoryChannelProvider.openSelector()) {
+            selector.wakeup();
+            assertEquals(0, selector.select(), "A wakeup before select makes it return at once");
+
+            CompletableFuture<Integer> blocked = TestThreads.startBlocking(selector::select);
+            assertFalse(blocked.isDone());
+            selector.wakeup();
+            assertEquals(0, blocked.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testNonBlockingConnect() throws Exception {
+        try (Selector selector = InMemoryChannelProvider.openSelector();
+                InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel();
+                InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17144);
+            server.bind(address);
+            server.configureBlocking(false);
+            client.configureBlocking(false);
+
+            assertFalse(client.connect(address), "Returns before the server accepts");
+            assertTrue(client.isConnectionPending());
+            assertFalse(client.finishConnect());
+            SelectionKey key = client.register(selector, SelectionKey.OP_CONNECT);
+            assertEquals(0, selector.selectNow());
+
+            try (SocketChannel accepted = server.accept()) {
+                assertNotNull(accepted);
+                assertEquals(1, selector.select(5000));
+                assertTrue(key.isConnectable());
+                assertTrue(client.finishConnect());
+                assertFalse(client.isConnectionPending());
+                assertTrue(client.isConnected());
+                selector.selectedKeys().clear();
+                assertEquals(0, selector.selectNow(), "Connect readiness ends with finishConnect");
+            }
+
+            // A server that closes before accepting fails the connect
+            try (InMemorySocketChannel refused = InMemoryChannelProvider.openInMemorySocketChannel()) {
+                refused.configureBlocking(false);
+                assertFalse(refused.connect(address));
+                SelectionKey refusedKey = refused.register(selector, SelectionKey.OP_CONNECT);
+                server.close();
+                assertEquals(1, selector.select(5000));
+                assertTrue(refusedKey.isConnectable());
+                assertThrows(ConnectException.class, refused::finishConnect);
+                assertFalse(refused.isOpen());
+            }
+        }
+    }
+
+    private static SocketChannel accept(InMemoryServerSocketChannel server) {
+        try {
+            return server.accept();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
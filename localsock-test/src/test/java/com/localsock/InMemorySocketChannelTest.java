@@ -0,0 +1,413 @@
+package com.localsock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Data path tests for connected pairs of in-memory socket channels. */
+class InMemorySocketChannelTest {
+
+    @Test
+    @Timeout(10)
+    void testTransferLargerThanRing() throws Exception {
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17101);
+            server.bind(address);
+            CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> accept(server));
+
+            try (SocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address);
+                    SocketChannel peer = accepted.get(5, TimeUnit.SECONDS)) {
+                byte[] payload = new byte[InMemorySocketChannel.DEFAULT_BUFFER_SIZE * 7 + 17];
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] = (byte) (i * 31);
+                }
+
+                // The writer has to block on the full ring until the reader drains it
+                CompletableFuture<Integer> writer = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return client.write(ByteBuffer.wrap(payload));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+
+                ByteBuffer received = ByteBuffer.allocate(payload.length);
+                while (received.hasRemaining()) {
+                    assertTrue(peer.read(received) > 0);
+                }
+                assertEquals(payload.length, writer.get(5, TimeUnit.SECONDS));
+                assertArrayEquals(payload, received.array());
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testReadReturnsEndOfStreamAfterPeerClose() throws Exception {
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17102);
+            server.bind(address);
+            CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> accept(server));
+
+            try (SocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address)) {
+                SocketChannel peer = accepted.get(5, TimeUnit.SECONDS);
+                peer.write(ByteBuffer.wrap("bye".getBytes()));
+                peer.close();
+
+                ByteBuffer buffer = ByteBuffer.allocate(16);
+                assertEquals(3, client.read(buffer), "Data sent before close must still be readable");
+                assertEquals(-1, client.read(buffer));
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testNonBlockingWriteStopsAtWindow() throws Exception {
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17103);
+            server.bind(address);
+            CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> accept(server));
+
+            try (SocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address);
+                    SocketChannel peer = accepted.get(5, TimeUnit.SECONDS)) {
+                client.setOption(StandardSocketOptions.SO_SNDBUF, 1024);
+                peer.setOption(StandardSocketOptions.SO_RCVBUF, 1024);
+                assertEquals(1024, client.getOption(StandardSocketOptions.SO_SNDBUF));
+                client.configureBlocking(false);
+
+                ByteBuffer src = ByteBuffer.allocate(4096);
+                assertEquals(2048, client.write(src), "Window is sender SO_SNDBUF plus receiver SO_RCVBUF");
+                assertEquals(0, client.write(src), "Full window must not accept more data");
+
+                assertEquals(1000, peer.read(ByteBuffer.allocate(1000)));
+                assertEquals(1000, client.write(src), "Drained bytes reopen the window");
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testOwnedBuffersKeepStreamOrder() throws Exception {
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17104);
+            server.bind(address);
+            CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> accept(server));
+
+            try (InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address);
+                    InMemorySocketChannel peer = (InMemorySocketChannel) accepted.get(5, TimeUnit.SECONDS)) {
+                ByteBuffer snapshot = ByteBuffer.allocateDirect(1 << 20);
+                client.write(ByteBuffer.wrap("head".getBytes()));
+                assertEquals(snapshot.capacity(), client.writeOwned(snapshot));
+                client.write(ByteBuffer.wrap("tail".getBytes()));
+
+                ByteBuffer head = peer.readOwned();
+                assertEquals("head", new String(head.array(), 0, head.remaining()));
+                assertSame(snapshot, peer.readOwned(), "Handed-over buffer must arrive without a copy");
+
+                ByteBuffer rest = ByteBuffer.allocate(16);
+                assertEquals(4, peer.read(rest));
+                assertEquals("tail", new String(rest.array(), 0, 4));
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testGatheringWriteAndScatteringRead() throws Exception {
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17105);
+            server.bind(address);
+            CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> accept(server));
+
+            try (SocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address);
+                    SocketChannel peer = accepted.get(5, TimeUnit.SECONDS)) {
+                ByteBuffer header = ByteBuffer.wrap("HDR:".getBytes());
+                ByteBuffer body = ByteBuffer.wrap("payload".getBytes());
+                assertEquals(11, client.write(new ByteBuffer[] {header, body}));
+                assertFalse(header.hasRemaining() || body.hasRemaining());
+
+                ByteBuffer first = ByteBuffer.allocate(3);
+                ByteBuffer second = ByteBuffer.allocate(16);
+                assertEquals(11, peer.read(new ByteBuffer[] {first, second}), "Both sources arrive in one read");
+                assertEquals("HDR", new String(first.array()));
+                assertEquals(":payload", new String(second.array(), 0, second.position()));
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testBlockedOwnedWriteResumesAfterRead() throws Exception {
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17106);
+            server.bind(address);
+            CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> accept(server));
+
+            try (InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address);
+                    InMemorySocketChannel peer = (InMemorySocketChannel) accepted.get(5, TimeUnit.SECONDS)) {
+                int window = 2 * InMemorySocketChannel.DEFAULT_BUFFER_SIZE;
+                assertEquals(window, client.writeOwned(ByteBuffer.allocate(window)));
+
+                // The window is full, so the second buffer waits until the first is taken
+                CompletableFuture<Integer> second =
+                        TestThreads.startBlocking(() -> client.writeOwned(ByteBuffer.allocate(16)));
+                assertFalse(second.isDone());
+
+                assertEquals(window, peer.readOwned().remaining());
+                assertEquals(16, second.get(5, TimeUnit.SECONDS));
+                assertEquals(16, peer.readOwned().remaining());
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testTransferFromFile(@TempDir Path directory) throws Exception {
+        byte[] content = new byte[InMemorySocketChannel.DEFAULT_BUFFER_SIZE * 5 + 123];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 13);
+        }
+        Path file = Files.write(directory.resolve("content.bin"), content);
+
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17107);
+            server.bind(address);
+            CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> accept(server));
+
+            try (InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address);
+                    InMemorySocketChannel peer = (InMemorySocketChannel) accepted.get(5, TimeUnit.SECONDS);
+                    FileChannel source = FileChannel.open(file)) {
+                CompletableFuture<Long> sender = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        // Skip the first byte and ask for more than is left
+                        return InMemoryChannelProvider.transferTo(source, 1, Long.MAX_VALUE, client);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+
+                ByteBuffer first = peer.readOwned();
+                assertTrue(first.isReadOnly(), "Handed over as a view of the file mapping");
+                ByteBuffer received = ByteBuffer.allocate(content.length - 1).put(first);
+                while (received.hasRemaining()) {
+                    assertTrue(peer.read(received) > 0);
+                }
+                assertEquals(content.length - 1, sender.get(5, TimeUnit.SECONDS));
+                assertArrayEquals(Arrays.copyOfRange(content, 1, content.length), received.array());
+                assertEquals(0, source.position(), "Source position is left alone");
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testFramedModePreservesWriteBoundaries() throws Exception {
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17108);
+            server.bind(address);
+            CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> accept(server));
+
+            try (InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address);
+                    InMemorySocketChannel peer = (InMemorySocketChannel) accepted.get(5, TimeUnit.SECONDS)) {
+                client.enableFraming();
+                assertTrue(peer.isFramed(), "Framing applies to both ends");
+
+                byte[] large = new byte[InMemorySocketChannel.DEFAULT_BUFFER_SIZE * 3];
+                Arrays.fill(large, (byte) 7);
+                CompletableFuture<Void> sender = CompletableFuture.runAsync(() -> {
+                    try {
+                        client.write(ByteBuffer.wrap("one".getBytes()));
+                        client.write(ByteBuffer.wrap("three".getBytes()));
+                        client.write(ByteBuffer.wrap(large));
+                        ByteBuffer[] parts = {
+                            ByteBuffer.wrap("skipped".getBytes()),
+                            ByteBuffer.wrap("ga".getBytes()),
+                            ByteBuffer.wrap("th".getBytes()),
+                            ByteBuffer.wrap("er".getBytes())
+                        };
+                        client.write(parts, 1, 3);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+
+                ByteBuffer small = ByteBuffer.allocate(4);
+                assertEquals(3, peer.readMessage(small));
+                assertEquals("one", new String(small.array(), 0, 3));
+                small.clear();
+                while (peer.nextMessageLength() < 0) {
+                    Thread.onSpinWait();
+                }
+                assertEquals(5, peer.nextMessageLength());
+                assertThrows(BufferOverflowException.class, () -> peer.readMessage(ByteBuffer.allocate(4)));
+                assertEquals("three", new String(peer.readMessage().array()));
+
+                assertEquals(large.length, peer.readMessage().remaining(), "Larger than the ring, still whole");
+                ByteBuffer gathered = peer.readMessage();
+                assertEquals("gather", new String(gathered.array(), 0, gathered.remaining()));
+                sender.get(5, TimeUnit.SECONDS);
+
+                assertThrows(IllegalStateException.class, () -> peer.read(ByteBuffer.allocate(8)));
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testDrainToPassesViewsInPlace() throws Exception {
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17109);
+            server.bind(address);
+            CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> accept(server));
+
+            try (InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address);
+                    InMemorySocketChannel peer = (InMemorySocketChannel) accepted.get(5, TimeUnit.SECONDS)) {
+                client.write(ByteBuffer.wrap("head".getBytes()));
+                client.writeOwned(ByteBuffer.wrap("owned".getBytes()));
+                client.write(ByteBuffer.wrap("tail".getBytes()));
+
+                StringBuilder seen = new StringBuilder();
+                assertEquals(
+                        6,
+                        peer.drainTo(
+                                view -> {
+                                    assertTrue(view.isReadOnly());
+                                    while (view.hasRemaining()) {
+                                        seen.append((char) view.get());
+                                    }
+                                },
+                                6),
+                        "Stops at maxBytes, in the middle of the owned buffer");
+                assertEquals("headow", seen.toString());
+
+                // A consumer that leaves bytes behind ends the drain, and those bytes stay queued
+                assertEquals(1, peer.drainTo(view -> view.get(), 100));
+                ByteBuffer rest = ByteBuffer.allocate(16);
+                while (rest.position() < 6) {
+                    assertTrue(peer.read(rest) > 0);
+                }
+                assertEquals("edtail", new String(rest.array(), 0, rest.position()));
+
+                client.close();
+                assertEquals(-1, peer.drainTo(view -> fail("Nothing left to offer"), 100));
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testBlockingConnectTimesOut() throws Exception {
+        Duration previous = InMemoryChannelProvider.getConnectTimeout();
+        InMemoryChannelProvider.setConnectTimeout(Duration.ofMillis(100));
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17110);
+            server.bind(address);
+
+            InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel();
+            assertThrows(SocketTimeoutException.class, () -> client.connect(address));
+            assertFalse(client.isOpen(), "A failed connect closes the channel");
+            server.configureBlocking(false);
+            assertNull(server.accept(), "The abandoned connection is gone");
+        } finally {
+            InMemoryChannelProvider.setConnectTimeout(previous);
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testClosedConnectionsRecycleTheirState() throws Exception {
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17125);
+            server.bind(address);
+            server.configureBlocking(false);
+
+            InMemorySocketChannel[] first = connect(server, address);
+            first[0].close();
+            first[1].close();
+            long reused = ChannelState.getReusedCount();
+
+            InMemorySocketChannel[] second = connect(server, address);
+            try {
+                assertTrue(ChannelState.getReusedCount() > reused, "The closed pair's state is leased again");
+                assertThrows(IOException.class, () -> first[0].read(ByteBuffer.allocate(1)));
+                first[1].close();
+
+                second[0].write(ByteBuffer.wrap("fresh".getBytes()));
+                ByteBuffer buffer = ByteBuffer.allocate(16);
+                assertEquals(5, second[1].read(buffer), "Stale channels leave the new connection alone");
+                assertEquals("fresh", new String(buffer.array(), 0, 5));
+            } finally {
+                second[0].close();
+                second[1].close();
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testCloseRacingAcceptReleasesConnection() throws Exception {
+        DirectBufferPool pool = DirectBufferPool.shared();
+        long leased = pool.getLeasedCount();
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17126);
+            server.bind(address);
+            server.configureBlocking(false);
+            for (int i = 0; i < 500; i++) {
+                InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel();
+                client.configureBlocking(false);
+                assertFalse(client.connect(address));
+                CompletableFuture<Void> closed = CompletableFuture.runAsync(() -> {
+                    try {
+                        client.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                SocketChannel accepted = server.accept();
+                closed.get(5, TimeUnit.SECONDS);
+                if (accepted != null) {
+                    accepted.close();
+                }
+            }
+        }
+        assertEquals(leased, pool.getLeasedCount(), "Both rings of every connection went back to the pool");
+    }
+
+    /** A connected client and server pair, without another thread to accept. */
+    private static InMemorySocketChannel[] connect(InMemoryServerSocketChannel server, InetSocketAddress address)
+            throws IOException {
+        InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel();
+        client.configureBlocking(false);
+        assertFalse(client.connect(address));
+        InMemorySocketChannel accepted = (InMemorySocketChannel) server.accept();
+        assertTrue(client.finishConnect());
+        client.configureBlocking(true);
+        return new InMemorySocketChannel[] {client, accepted};
+    }
+
+    private static SocketChannel accept(InMemoryServerSocketChannel server) {
+        try {
+            return server.accept();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
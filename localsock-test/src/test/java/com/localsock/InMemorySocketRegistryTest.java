@@ -0,0 +1,278 @@
+package com.localsock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/** Tests for finding servers in the registry by address and port. */
+class InMemorySocketRegistryTest {
+
+    @Test
+    @Timeout(10)
+    void testServersOnSamePortAreToldApartByAddress() throws Exception {
+        try (InMemoryServerSocketChannel first = InMemoryChannelProvider.openInMemoryServerSocketChannel();
+                InMemoryServerSocketChannel second = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            first.bind(new InetSocketAddress("127.0.0.1", 17171));
+            InetSocketAddress address = new InetSocketAddress("127.0.0.2", 17171);
+            second.bind(address);
+            CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> accept(second));
+
+            try (InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address);
+                    SocketChannel peer = accepted.get(5, TimeUnit.SECONDS)) {
+                assertEquals("127.0.0.2:17171", client.getConnectionKey());
+                assertEquals("127.0.0.2:17171", ((InMemorySocketChannel) peer).getConnectionKey());
+                first.configureBlocking(false);
+                assertNull(first.accept(), "The other address' server got no connection");
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testClosingReplacedServerKeepsItsSuccessor() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 17172);
+        InMemoryServerSocketChannel replaced = InMemoryChannelProvider.openInMemoryServerSocketChannel();
+        replaced.bind(address);
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            server.bind(address);
+            replaced.close();
+            CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> accept(server));
+
+            try (InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address);
+                    SocketChannel peer = accepted.get(5, TimeUnit.SECONDS)) {
+                assertTrue(client.isConnected());
+                assertTrue(peer.isConnected());
+            }
+        }
+        assertThrows(IOException.class, () -> InMemoryChannelProvider.openInMemorySocketChannel(address));
+    }
+
+    @Test
+    @Timeout(10)
+    @SuppressWarnings("deprecation")
+    void testDeprecatedKeyMethodsFindServersByKey() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 17178);
+        String key = "127.0.0.1:" + address.getPort();
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            server.bind(address);
+            assertNull(InMemorySocketRegistry.acceptConnection(key), "Nobody connected yet");
+
+            InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel();
+            client.configureBlocking(false);
+            assertFalse(client.connect(address));
+            try (InMemorySocketChannel peer = InMemorySocketRegistry.acceptConnection(key)) {
+                assertNotNull(peer);
+                assertTrue(client.finishConnect());
+            } finally {
+                client.close();
+            }
+
+            InMemorySocketRegistry.unregisterServer(key);
+            assertThrows(ConnectException.class, () -> InMemoryChannelProvider.openInMemorySocketChannel(address));
+            assertNull(InMemorySocketRegistry.acceptConnection("not a key"));
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testConnectsBeyondBacklogAreRefused() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 17173);
+        List<InMemorySocketChannel> clients = new ArrayList<>();
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            server.bind(address, 2);
+            server.configureBlocking(false);
+            for (int i = 0; i < 2; i++) {
+                InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel();
+                clients.add(client);
+                client.configureBlocking(false);
+                assertFalse(client.connect(address));
+            }
+            assertEquals(2, server.getPendingConnectionCount());
+
+            InMemorySocketChannel refused = InMemoryChannelProvider.openInMemorySocketChannel();
+            assertThrows(ConnectException.class, () -> refused.connect(address), "Fails at once when full");
+            assertFalse(refused.isOpen());
+            assertEquals(1, server.getRefusedConnectionCount());
+
+            try (SocketChannel accepted = server.accept()) {
+                assertNotNull(accepted);
+                assertEquals(1, server.getPendingConnectionCount(), "Accepting makes room again");
+                assertTrue(clients.get(0).finishConnect());
+            }
+        } finally {
+            for (InMemorySocketChannel client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testTransparentConnectBeyondBacklogIsRefused() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 17179);
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            server.bind(address, 1);
+            server.setConnectionPoolSize(2);
+            try (SocketChannel queued = new InMemorySelectorProvider().openSocketChannel();
+                    SocketChannel refused = new InMemorySelectorProvider().openSocketChannel()) {
+                assertTrue(queued.connect(address));
+
+                // Refused by the local server, rather than retried over TCP
+                ConnectException e = assertThrows(ConnectException.class, () -> refused.connect(address));
+                assertTrue(e.getMessage().contains("backlog"), e.getMessage());
+                assertEquals(1, server.getRefusedConnectionCount());
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testPooledConnectCompletesBeforeAccept() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 17174);
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            server.bind(address);
+            server.setConnectionPoolSize(2);
+
+            // Nobody accepts yet, so this would otherwise run into the connect timeout
+            try (InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address)) {
+                assertTrue(client.isConnected());
+                assertFalse(client.isConnectionPending());
+                client.write(ByteBuffer.wrap("early".getBytes()));
+                assertEquals(1, server.getPendingConnectionCount());
+
+                try (SocketChannel accepted = server.accept()) {
+                    ByteBuffer buffer = ByteBuffer.allocate(16);
+                    assertEquals(5, accepted.read(buffer));
+                    assertEquals("early", new String(buffer.array(), 0, 5));
+                }
+            }
+
+            InMemorySocketChannel unaccepted = InMemoryChannelProvider.openInMemorySocketChannel(address);
+            server.close();
+            assertEquals(-1, unaccepted.read(ByteBuffer.allocate(1)), "Closing the server drops unaccepted ones");
+            unaccepted.close();
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testReusePortServersTakeTurnsAccepting() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 17175);
+        List<InMemorySocketChannel> clients = new ArrayList<>();
+        try (InMemoryServerSocketChannel first = InMemoryChannelProvider.openInMemoryServerSocketChannel();
+                InMemoryServerSocketChannel second = InMemoryChannelProvider.openInMemoryServerSocketChannel();
+                InMemoryServerSocketChannel exclusive = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            second.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            first.bind(address, 3);
+            second.bind(address, 3);
+            assertThrows(BindException.class, () -> exclusive.bind(address), "Only shared with SO_REUSEPORT");
+
+            for (int i = 0; i < 4; i++) {
+                InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel();
+                clients.add(client);
+                client.configureBlocking(false);
+                assertFalse(client.connect(address));
+            }
+            assertEquals(2, first.getPendingConnectionCount());
+            assertEquals(2, second.getPendingConnectionCount());
+
+            for (int i = 0; i < 2; i++) {
+                InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel();
+                clients.add(client);
+                client.configureBlocking(false);
+                assertFalse(client.connect(address));
+            }
+            assertThrows(ConnectException.class, () -> InMemoryChannelProvider.openInMemorySocketChannel()
+                    .connect(address));
+            assertEquals(6, first.getPendingConnectionCount() + second.getPendingConnectionCount());
+
+            second.close();
+            first.configureBlocking(false);
+            try (SocketChannel accepted = first.accept()) {
+                assertNotNull(accepted, "The remaining server keeps accepting");
+            }
+        } finally {
+            for (InMemorySocketChannel client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testCollectedServerRefusesWaitingClients() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 17176);
+        bindAndDrop(address);
+        try (Selector selector = InMemoryChannelProvider.openSelector();
+                InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel()) {
+            client.configureBlocking(false);
+            assertFalse(client.connect(address));
+            SelectionKey key = client.register(selector, SelectionKey.OP_CONNECT);
+
+            // The cleaner refuses the connect once the server is collected, which the selector sees
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (selector.select(10) == 0) {
+                assertTrue(System.nanoTime() - deadline < 0, "Server was never collected");
+                System.gc();
+            }
+            assertTrue(key.isConnectable());
+            assertThrows(ConnectException.class, client::finishConnect);
+            assertThrows(ConnectException.class, () -> InMemoryChannelProvider.openInMemorySocketChannel(address));
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testNetworksKeepTheirServersApart() throws Exception {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 17177);
+        InMemoryNetwork first = new InMemoryNetwork();
+        InMemoryNetwork second = new InMemoryNetwork();
+        try (InMemoryServerSocketChannel firstServer = first.openServerSocketChannel();
+                InMemoryServerSocketChannel secondServer = second.openServerSocketChannel();
+                InMemorySocketChannel client = second.openSocketChannel()) {
+            firstServer.bind(address);
+            secondServer.bind(address);
+            assertEquals(1, first.getActiveServerCount());
+            assertThrows(ConnectException.class, () -> InMemoryChannelProvider.openInMemorySocketChannel(address));
+
+            client.configureBlocking(false);
+            assertFalse(client.connect(address));
+            assertEquals(0, first.getPendingConnectionCount());
+            assertEquals(1, second.getPendingConnectionCount());
+            secondServer.configureBlocking(false);
+            try (SocketChannel accepted = secondServer.accept()) {
+                assertNotNull(accepted);
+                assertTrue(client.finishConnect());
+            }
+        }
+    }
+
+    /** Bind a server that is never closed and is unreachable once this returns. */
+    private static void bindAndDrop(InetSocketAddress address) throws IOException {
+        InMemoryChannelProvider.openInMemoryServerSocketChannel().bind(address);
+    }
+
+    private static SocketChannel accept(InMemoryServerSocketChannel server) {
+        try {
+            return server.accept();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
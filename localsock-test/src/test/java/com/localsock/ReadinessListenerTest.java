@@ -0,0 +1,111 @@
+package com.localsock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/** Tests for push-style readiness listeners on in-memory channels. */
+class ReadinessListenerTest {
+
+    @Test
+    @Timeout(10)
+    void testListenersDriveAcceptAndRead() throws Exception {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+                InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17151);
+            server.bind(address);
+            server.configureBlocking(false);
+
+            StringBuffer received = new StringBuffer();
+            CompletableFuture<Void> endOfStream = new CompletableFuture<>();
+            AtomicInteger concurrentRuns = new AtomicInteger();
+            server.onAcceptable(
+                    s -> {
+                        SocketChannel accepted;
+                        while ((accepted = accept(s)) != null) {
+                            InMemorySocketChannel channel = (InMemorySocketChannel) accepted;
+                            configureNonBlocking(channel);
+                            channel.onReadable(
+                                    c -> {
+                                        assertEquals(1, concurrentRuns.incrementAndGet(), "Runs never overlap");
+                                        ByteBuffer buffer = ByteBuffer.allocate(16);
+                                        int read;
+                                        while ((read = read(c, buffer.clear())) > 0) {
+                                            received.append(new String(buffer.array(), 0, read));
+                                        }
+                                        concurrentRuns.decrementAndGet();
+                                        if (read < 0) {
+                                            endOfStream.complete(null);
+                                        }
+                                    },
+                                    executor);
+                        }
+                    },
+                    executor);
+
+            try (InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address)) {
+                for (String part : new String[] {"edge", "-", "triggered"}) {
+                    client.write(ByteBuffer.wrap(part.getBytes()));
+                }
+            }
+            endOfStream.get(5, TimeUnit.SECONDS);
+            assertEquals("edge-triggered", received.toString());
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testWritableFiresWhenAlreadyWritable() throws Exception {
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", 17152);
+            server.bind(address);
+            CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> accept(server));
+
+            try (InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address);
+                    SocketChannel peer = accepted.get(5, TimeUnit.SECONDS)) {
+                CompletableFuture<InMemorySocketChannel> writable = new CompletableFuture<>();
+                client.onWritable(writable::complete, Runnable::run);
+                assertSame(client, writable.getNow(null));
+
+                client.onWritable(null);
+                client.write(ByteBuffer.allocate(8));
+                assertEquals(8, peer.read(ByteBuffer.allocate(8)), "Removed listeners do not get in the way");
+            }
+        }
+    }
+
+    private static SocketChannel accept(InMemoryServerSocketChannel server) {
+        try {
+            return server.accept();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int read(SocketChannel channel, ByteBuffer buffer) {
+        try {
+            return channel.read(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void configureNonBlocking(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.localsock;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the memory behind ring slabs, as built into the multi-release jar for Java 22+. */
+class RingMemoryTest {
+
+    @Test
+    void testFreedSlabsBeyondTheSparesAreReleased() {
+        URL variant = RingMemory.class.getResource("RingMemory.class");
+        assumeTrue(
+                variant != null && variant.toString().contains("META-INF/versions/"),
+                "Only the Java 22 variant, loaded from the multi-release jar, releases memory eagerly");
+
+        List<RingMemory> slabs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            slabs.add(RingMemory.allocate(DirectBufferPool.MAX_SLAB_SIZE));
+        }
+        for (RingMemory memory : slabs) {
+            memory.free();
+        }
+
+        // At most two of the largest slabs fit the 16 MiB of spares kept per size
+        long released =
+                slabs.stream().filter(memory -> isReleased(memory.buffer())).count();
+        assertTrue(released >= slabs.size() - 2, released + " of " + slabs.size() + " released");
+
+        RingMemory reused = RingMemory.allocate(DirectBufferPool.MAX_SLAB_SIZE);
+        assertFalse(isReleased(reused.buffer()));
+        reused.free();
+    }
+
+    private static boolean isReleased(ByteBuffer buffer) {
+        try {
+            buffer.get(0);
+            return false;
+        } catch (IllegalStateException e) {
+            return true; // The slab's Arena is closed
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.localsock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Connects to an in-memory server running in a second JVM through the shared memory transport. */
+class SharedMemoryTransportTest {
+
+    private static final int PORT = 17121;
+
+    @Test
+    @Timeout(30)
+    void testConnectToServerInOtherJvm(@TempDir Path directory) throws Exception {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Process server = new ProcessBuilder(
+                        java,
+                        "-cp",
+                        System.getProperty("java.class.path"),
+                        "-D" + SharedMemoryTransport.ENABLED_PROPERTY + "=true",
+                        "-D" + SharedMemoryTransport.DIRECTORY_PROPERTY + "=" + directory,
+                        EchoServer.class.getName(),
+                        String.valueOf(PORT))
+                .redirectErrorStream(true)
+                .start();
+        System.setProperty(SharedMemoryTransport.ENABLED_PROPERTY, "true");
+        System.setProperty(SharedMemoryTransport.DIRECTORY_PROPERTY, directory.toString());
+        try {
+            BufferedReader output = new BufferedReader(new InputStreamReader(server.getInputStream()));
+            assertEquals("READY", output.readLine());
+
+            byte[] payload = new byte[SharedMemorySocketChannel.RING_CAPACITY * 3 + 5];
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] = (byte) (i * 7);
+            }
+            try (SocketChannel client = InMemorySocketRegistry.connect(new InetSocketAddress("localhost", PORT))) {
+                assertInstanceOf(SharedMemorySocketChannel.class, client);
+
+                // More than one ring's worth, so both sides have to wait for each other
+                ByteBuffer received = ByteBuffer.allocate(payload.length);
+                ByteBuffer out = ByteBuffer.wrap(payload);
+                while (received.hasRemaining()) {
+                    if (out.hasRemaining()) {
+                        client.configureBlocking(false);
+                        client.write(out);
+                        client.configureBlocking(true);
+                    }
+                    if (client.read(received) < 0) {
+                        fail("Unexpected end of stream");
+                    }
+                }
+                assertArrayEquals(payload, received.array());
+            }
+
+            assertTrue(server.waitFor(10, TimeUnit.SECONDS));
+            assertEquals(0, server.exitValue());
+            try (var requests = Files.list(directory.resolve("port-" + PORT))) {
+                assertEquals(0, requests.count(), "Accepted request files are unlinked");
+            }
+        } finally {
+            System.clearProperty(SharedMemoryTransport.ENABLED_PROPERTY);
+            System.clearProperty(SharedMemoryTransport.DIRECTORY_PROPERTY);
+            server.destroyForcibly();
+        }
+    }
+
+    @Test
+    @EnabledOnOs({OS.LINUX, OS.MAC})
+    void testFilesAreAccessibleToOwnerOnly(@TempDir Path directory) throws Exception {
+        Path shared = directory.resolve("shm");
+        System.setProperty(SharedMemoryTransport.ENABLED_PROPERTY, "true");
+        System.setProperty(SharedMemoryTransport.DIRECTORY_PROPERTY, shared.toString());
+        try (SharedMemoryTransport.Listener listener =
+                SharedMemoryTransport.get().listen(PORT + 1, SelectorProvider.provider(), connection -> {})) {
+            assertNotNull(listener);
+            assertEquals("rwx------", permissions(shared));
+            assertEquals("rw-------", permissions(shared.resolve("ports")));
+            assertEquals("rwx------", permissions(shared.resolve("port-" + (PORT + 1))));
+        } finally {
+            System.clearProperty(SharedMemoryTransport.ENABLED_PROPERTY);
+            System.clearProperty(SharedMemoryTransport.DIRECTORY_PROPERTY);
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testSelectOnChannelFromOtherJvm(@TempDir Path directory) throws Exception {
+        System.setProperty(SharedMemoryTransport.ENABLED_PROPERTY, "true");
+        System.setProperty(SharedMemoryTransport.DIRECTORY_PROPERTY, directory.toString());
+        try (Selector selector = InMemoryChannelProvider.openSelector();
+                InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            server.bind(new InetSocketAddress("localhost", PORT + 2));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            Process client = start(directory, EchoClient.class, PORT + 2);
+
+            // Echo from one selector loop until the client closes
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            boolean open = true;
+            while (open) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isAcceptable()) {
+                        SocketChannel accepted = server.accept();
+                        assertInstanceOf(SharedMemorySocketChannel.class, accepted);
+                        accepted.configureBlocking(false);
+                        accepted.register(selector, SelectionKey.OP_READ);
+                    } else if (key.isReadable()) {
+                        SocketChannel accepted = (SocketChannel) key.channel();
+                        if (accepted.read(buffer.clear()) < 0) {
+                            accepted.close();
+                            open = false;
+                        }
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            accepted.write(buffer);
+                        }
+                    }
+                }
+            }
+            assertEquals("OK", new BufferedReader(new InputStreamReader(client.getInputStream())).readLine());
+            assertTrue(client.waitFor(10, TimeUnit.SECONDS));
+        } finally {
+            System.clearProperty(SharedMemoryTransport.ENABLED_PROPERTY);
+            System.clearProperty(SharedMemoryTransport.DIRECTORY_PROPERTY);
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testNonBlockingConnectToServerInOtherJvm(@TempDir Path directory) throws Exception {
+        Process server = start(directory, EchoServer.class, PORT + 3);
+        System.setProperty(SharedMemoryTransport.ENABLED_PROPERTY, "true");
+        System.setProperty(SharedMemoryTransport.DIRECTORY_PROPERTY, directory.toString());
+        try (Selector selector = InMemoryChannelProvider.openSelector();
+                SocketChannel client = new InMemorySelectorProvider().openSocketChannel()) {
+            BufferedReader output = new BufferedReader(new InputStreamReader(server.getInputStream()));
+            assertEquals("READY", output.readLine());
+
+            client.configureBlocking(false);
+            if (!client.connect(new InetSocketAddress("localhost", PORT + 3))) {
+                assertTrue(client.isConnectionPending());
+                SelectionKey key = client.register(selector, SelectionKey.OP_CONNECT);
+                assertEquals(1, selector.select(10_000), "The other JVM accepts");
+                assertTrue(key.isConnectable());
+                assertTrue(client.finishConnect());
+                key.cancel();
+            }
+            assertTrue(client.isConnected());
+
+            client.configureBlocking(true);
+            client.write(ByteBuffer.wrap("hello".getBytes()));
+            ByteBuffer echo = ByteBuffer.allocate(5);
+            while (echo.hasRemaining()) {
+                assertTrue(client.read(echo) > 0);
+            }
+            assertEquals("hello", new String(echo.array()));
+        } finally {
+            System.clearProperty(SharedMemoryTransport.ENABLED_PROPERTY);
+            System.clearProperty(SharedMemoryTransport.DIRECTORY_PROPERTY);
+            server.destroyForcibly();
+        }
+    }
+
+    private static Process start(Path directory, Class<?> mainClass, int port) throws IOException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        return new ProcessBuilder(
+                        java,
+                        "-cp",
+                        System.getProperty("java.class.path"),
+                        "-D" + SharedMemoryTransport.ENABLED_PROPERTY + "=true",
+                        "-D" + SharedMemoryTransport.DIRECTORY_PROPERTY + "=" + directory,
+                        mainClass.getName(),
+                        String.valueOf(port))
+                .redirectErrorStream(true)
+                .start();
+    }
+
+    private static String permissions(Path path) throws IOException {
+        return PosixFilePermissions.toString(Files.getPosixFilePermissions(path));
+    }
+
+    /** Connects, checks that what it sends comes back, and prints OK. */
+    public static class EchoClient {
+        public static void main(String[] args) throws Exception {
+            InetSocketAddress address = new InetSocketAddress("localhost", Integer.parseInt(args[0]));
+            try (SocketChannel channel = InMemorySocketRegistry.connect(address)) {
+                if (!(channel instanceof SharedMemorySocketChannel)) {
+                    throw new AssertionError("Not connected over shared memory: " + channel);
+                }
+                byte[] payload = "hello over shared memory".getBytes();
+                channel.write(ByteBuffer.wrap(payload));
+                ByteBuffer echo = ByteBuffer.allocate(payload.length);
+                while (echo.hasRemaining() && channel.read(echo) >= 0) {
+                    // keep reading
+                }
+                if (!new String(echo.array()).equals(new String(payload))) {
+                    throw new AssertionError("Unexpected echo: " + new String(echo.array()));
+                }
+            }
+            System.out.println("OK");
+        }
+    }
+
+    /** Accepts one connection and echoes it back until the client closes. */
+    public static class EchoServer {
+        public static void main(String[] args) throws Exception {
+            try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+                server.bind(new InetSocketAddress("localhost", Integer.parseInt(args[0])));
+                System.out.println("READY");
+                System.out.flush();
+                try (SocketChannel connection = server.accept()) {
+                    ByteBuffer buffer = ByteBuffer.allocate(4096);
+                    while (connection.read(buffer) >= 0) {
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            connection.write(buffer);
+                        }
+                        buffer.clear();
+                    }
+                }
+            }
+        }
+    }
+}
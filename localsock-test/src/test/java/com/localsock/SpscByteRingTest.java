@@ -0,0 +1,71 @@
+package com.localsock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the single-producer/single-consumer byte ring. */
+class SpscByteRingTest {
+
+    @Test
+    void testRejectsNonPowerOfTwoCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new SpscByteRing(1000));
+    }
+
+    @Test
+    void testPartialWriteWhenFull() {
+        SpscByteRing ring = new SpscByteRing(16);
+
+        ByteBuffer src = ByteBuffer.wrap(new byte[24]);
+        assertEquals(16, ring.write(src));
+        assertEquals(8, src.remaining(), "Bytes that did not fit should stay in the source");
+        assertEquals(0, ring.write(src));
+        assertEquals(0, ring.remainingCapacity());
+    }
+
+    @Test
+    void testPreservesOrderAcrossWrapAround() {
+        SpscByteRing ring = new SpscByteRing(16);
+        ByteBuffer dst = ByteBuffer.allocate(64);
+
+        byte next = 0;
+        for (int round = 0; round < 10; round++) {
+            byte[] chunk = new byte[11];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = next++;
+            }
+            assertEquals(chunk.length, ring.write(ByteBuffer.wrap(chunk)));
+
+            // Read in two uneven pieces so the head lands at odd offsets
+            dst.clear().limit(4);
+            assertEquals(4, ring.read(dst));
+            dst.limit(64);
+            assertEquals(7, ring.read(dst));
+            dst.flip();
+            for (int i = 0; i < chunk.length; i++) {
+                assertEquals(chunk[i], dst.get(), "Byte " + i + " of round " + round);
+            }
+            assertTrue(ring.isEmpty());
+        }
+    }
+
+    @Test
+    void testReadableViewStopsAtWrapAround() {
+        SpscByteRing ring = new SpscByteRing(16);
+        ring.write(ByteBuffer.allocate(12));
+        ring.skip(12);
+        ring.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6}));
+
+        ByteBuffer first = ring.readableView(100);
+        assertTrue(first.isReadOnly());
+        assertEquals(4, first.remaining(), "Only the bytes up to the end of the storage");
+        assertEquals(6, ring.size(), "Viewing consumes nothing");
+        ring.skip(first.remaining());
+
+        ByteBuffer second = ring.readableView(100);
+        assertEquals(2, second.remaining());
+        assertEquals(5, second.get());
+        assertEquals(6, second.get());
+    }
+}
@@ -0,0 +1,46 @@
+package com.localsock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/** Starts calls that block, for tests that act on them while they wait. */
+final class TestThreads {
+
+    private static final long BLOCKED_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private TestThreads() {}
+
+    /**
+     * Run {@code task} on a new thread and return once that thread is blocked waiting, or the task
+     * is done. Fails if neither happens within five seconds.
+     */
+    static <T> CompletableFuture<T> startBlocking(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+
+        long deadline = System.nanoTime() + BLOCKED_TIMEOUT_NANOS;
+        while (!result.isDone() && !isWaiting(thread)) {
+            if (System.nanoTime() - deadline > 0) {
+                fail("Task neither blocked nor completed");
+            }
+            Thread.onSpinWait();
+        }
+        return result;
+    }
+
+    private static boolean isWaiting(Thread thread) {
+        Thread.State state = thread.getState();
+        return state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING;
+    }
+}
@@ -0,0 +1,153 @@
+package com.localsock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Connects two JVMs through the Unix domain socket fallback. Both run with the JDK's selector
+ * provider forced by system property, since the transport cannot reach it when this library's
+ * provider is installed through the service loader.
+ */
+@EnabledOnOs(OS.LINUX)
+class UnixSocketTransportTest {
+
+    private static final int PORT = 17131;
+
+    @Test
+    @Timeout(30)
+    void testConnectToServerInOtherProcess(@TempDir Path directory) throws Exception {
+        Process server = start(directory, SharedMemoryTransportTest.EchoServer.class);
+        try {
+            BufferedReader serverOutput = new BufferedReader(new InputStreamReader(server.getInputStream()));
+            assertEquals("READY", serverOutput.readLine());
+
+            Process client = start(directory, Client.class);
+            BufferedReader clientOutput = new BufferedReader(new InputStreamReader(client.getInputStream()));
+            assertEquals("OK", clientOutput.readLine());
+            assertTrue(client.waitFor(10, TimeUnit.SECONDS));
+            assertTrue(server.waitFor(10, TimeUnit.SECONDS));
+            assertEquals(0, server.exitValue());
+        } finally {
+            server.destroyForcibly();
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testStaleSocketIsReplacedWithoutDisturbingLiveListener(@TempDir Path directory) throws Exception {
+        int port = PORT + 1;
+        Path socket = directory.resolve(port + ".sock");
+        Files.createFile(socket);
+        Process server = start(directory, SharedMemoryTransportTest.EchoServer.class, port);
+        try {
+            BufferedReader serverOutput = new BufferedReader(new InputStreamReader(server.getInputStream()));
+            assertEquals("READY", serverOutput.readLine());
+            assertFalse(Files.isRegularFile(socket), "The stale file was replaced by the listening socket");
+
+            // The echo server accepts a single connection, which must be the client's
+            assertEquals("in use", output(start(directory, Listen.class, port)));
+            Process client = start(directory, Client.class, port);
+            BufferedReader clientOutput = new BufferedReader(new InputStreamReader(client.getInputStream()));
+            assertEquals("OK", clientOutput.readLine());
+            assertTrue(server.waitFor(10, TimeUnit.SECONDS));
+            assertEquals(0, server.exitValue());
+        } finally {
+            server.destroyForcibly();
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testDefaultDirectoryIsPrivate(@TempDir Path temp) throws Exception {
+        String tmpdir = "-Djava.io.tmpdir=" + temp;
+        String user = System.getProperty("user.name").replaceAll("[^A-Za-z0-9._-]", "_");
+        Path directory = temp.resolve("localsock-uds-" + user);
+        assertEquals("listening", output(start(Listen.class, PORT + 2, tmpdir)));
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(directory)));
+
+        Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwxrwxrwx"));
+        assertEquals("IOException", output(start(Listen.class, PORT + 2, tmpdir)));
+    }
+
+    private static Process start(Path directory, Class<?> mainClass) throws Exception {
+        return start(directory, mainClass, PORT);
+    }
+
+    private static Process start(Path directory, Class<?> mainClass, int port) throws Exception {
+        return start(mainClass, port, "-D" + UnixSocketTransport.DIRECTORY_PROPERTY + "=" + directory);
+    }
+
+    private static Process start(Class<?> mainClass, int port, String property) throws Exception {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        return new ProcessBuilder(List.of(
+                        java,
+                        "-cp",
+                        System.getProperty("java.class.path"),
+                        "-Djava.nio.channels.spi.SelectorProvider=sun.nio.ch.EPollSelectorProvider",
+                        "-D" + UnixSocketTransport.ENABLED_PROPERTY + "=true",
+                        property,
+                        mainClass.getName(),
+                        String.valueOf(port)))
+                .redirectErrorStream(true)
+                .start();
+    }
+
+    private static String output(Process process) throws Exception {
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line = output.readLine();
+        assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+        return line;
+    }
+
+    /** Tries to listen on the port and prints how that went. */
+    public static class Listen {
+        public static void main(String[] args) {
+            try {
+                UnixSocketTransport.Listener listener =
+                        UnixSocketTransport.listen(Integer.parseInt(args[0]), channel -> {});
+                System.out.println(listener != null ? "listening" : "in use");
+            } catch (IOException e) {
+                System.out.println(e.getClass().getSimpleName());
+            }
+        }
+    }
+
+    /** Connects through the registry, checks the echo and prints OK. */
+    public static class Client {
+        public static void main(String[] args) throws Exception {
+            InetSocketAddress address = new InetSocketAddress("localhost", Integer.parseInt(args[0]));
+            try (SocketChannel channel = InMemorySocketRegistry.connect(address)) {
+                if (!(channel.getRemoteAddress() instanceof UnixDomainSocketAddress)) {
+                    throw new AssertionError("Not connected over a Unix domain socket: " + channel);
+                }
+                byte[] payload = "hello over AF_UNIX".getBytes();
+                channel.write(ByteBuffer.wrap(payload));
+                ByteBuffer echo = ByteBuffer.allocate(payload.length);
+                while (echo.hasRemaining() && channel.read(echo) >= 0) {
+                    // keep reading
+                }
+                if (!new String(echo.array()).equals(new String(payload))) {
+                    throw new AssertionError("Unexpected echo: " + new String(echo.array()));
+                }
+            }
+            System.out.println("OK");
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.localsock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/** Blocking reads and accepts behave the same whichever way they wait. */
+class WaitStrategyTest {
+
+    static Stream<Arguments> strategies() {
+        return Stream.of(
+                Arguments.of("busy-spin", WaitStrategy.BUSY_SPIN, 17111),
+                Arguments.of("spin-yield", WaitStrategy.spinThenYield(10), 17112),
+                Arguments.of("spin-park", WaitStrategy.spinThenPark(10), 17113),
+                Arguments.of("condition", WaitStrategy.CONDITION, 17114));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("strategies")
+    @Timeout(10)
+    void testPingPong(String name, WaitStrategy strategy, int port) throws Exception {
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            server.setWaitStrategy(strategy);
+            InetSocketAddress address = new InetSocketAddress("localhost", port);
+            server.bind(address);
+            // Started before the client connects, so accept() has to wait
+            CompletableFuture<InMemorySocketChannel> accepted =
+                    CompletableFuture.supplyAsync(() -> (InMemorySocketChannel) accept(server));
+
+            try (InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address);
+                    InMemorySocketChannel peer = accepted.get(5, TimeUnit.SECONDS)) {
+                client.setWaitStrategy(strategy);
+                peer.setWaitStrategy(strategy);
+
+                CompletableFuture<Void> echo = CompletableFuture.runAsync(() -> {
+                    ByteBuffer buffer = ByteBuffer.allocate(8);
+                    try {
+                        while (peer.read(buffer) >= 0) {
+                            buffer.flip();
+                            peer.write(buffer);
+                            buffer.clear();
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+
+                ByteBuffer out = ByteBuffer.allocate(8);
+                ByteBuffer in = ByteBuffer.allocate(8);
+                for (long i = 0; i < 100; i++) {
+                    client.write(out.clear().putLong(i).flip());
+                    in.clear();
+                    while (in.hasRemaining()) {
+                        assertTrue(client.read(in) > 0);
+                    }
+                    assertEquals(i, in.getLong(0));
+                }
+                client.close();
+                echo.get(5, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testDefaultStrategyAppliesToChannelsWithoutOwn() throws Exception {
+        WaitStrategy previous = InMemoryChannelProvider.getDefaultWaitStrategy();
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            InMemoryChannelProvider.setDefaultWaitStrategy(WaitStrategy.BUSY_SPIN);
+            assertSame(WaitStrategy.BUSY_SPIN, server.getWaitStrategy());
+
+            server.setWaitStrategy(WaitStrategy.CONDITION);
+            assertSame(WaitStrategy.CONDITION, server.getWaitStrategy());
+            server.setWaitStrategy(null);
+            assertSame(WaitStrategy.BUSY_SPIN, server.getWaitStrategy());
+        } finally {
+            InMemoryChannelProvider.setDefaultWaitStrategy(previous);
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("strategies")
+    @Timeout(10)
+    void testInterruptEndsBlockedRead(String name, WaitStrategy strategy, int port) throws Exception {
+        try (InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel()) {
+            // Clear of the ports testPingPong binds
+            InetSocketAddress address = new InetSocketAddress("localhost", port + 80);
+            server.bind(address);
+            CompletableFuture<SocketChannel> accepted = CompletableFuture.supplyAsync(() -> accept(server));
+
+            try (InMemorySocketChannel client = InMemoryChannelProvider.openInMemorySocketChannel(address);
+                    InMemorySocketChannel peer = (InMemorySocketChannel) accepted.get(5, TimeUnit.SECONDS)) {
+                peer.setWaitStrategy(strategy);
+                CompletableFuture<Integer> read = new CompletableFuture<>();
+                Thread reader = new Thread(() -> {
+                    try {
+                        read.complete(peer.read(ByteBuffer.allocate(1)));
+                    } catch (Throwable e) {
+                        read.completeExceptionally(e);
+                    }
+                });
+                reader.start();
+                reader.interrupt();
+
+                ExecutionException e = assertThrows(ExecutionException.class, () -> read.get(5, TimeUnit.SECONDS));
+                assertInstanceOf(IOException.class, e.getCause());
+            }
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testCloseWakesParkedAccept() throws Exception {
+        InMemoryServerSocketChannel server = InMemoryChannelProvider.openInMemoryServerSocketChannel();
+        server.setWaitStrategy(WaitStrategy.spinThenPark(0));
+        server.bind(new InetSocketAddress("localhost", 17115));
+        // Returns once the acceptor is parked
+        CompletableFuture<SocketChannel> acceptor = TestThreads.startBlocking(server::accept);
+
+        server.close();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> acceptor.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+    }
+
+    private static SocketChannel accept(InMemoryServerSocketChannel server) {
+        try {
+            return server.accept();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}